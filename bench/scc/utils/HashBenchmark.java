@@ -0,0 +1,92 @@
+package scc.utils;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link Hash#of(byte[])} with the previous implementation, which
+ * shared one synchronized SHA1 digest and formatted it through BigInteger and
+ * String.format, on one thread and on eight contending threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+	@Param({ "64", "4096", "1048576" })
+	int size;
+
+	byte[] data;
+
+	@Setup
+	public void setup() {
+		data = new byte[size];
+		new Random(42).nextBytes(data);
+	}
+
+	@Benchmark
+	public String legacy() {
+		return Legacy.of(data);
+	}
+
+	@Benchmark
+	public String current() {
+		return Hash.of(data);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String legacyContended() {
+		return Legacy.of(data);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String currentContended() {
+		return Hash.of(data);
+	}
+
+	/**
+	 * The hashing path before it was made lock-free.
+	 */
+	static class Legacy {
+		static MessageDigest md;
+
+		static {
+			try {
+				md = MessageDigest.getInstance("SHA1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		synchronized static byte[] digest(byte[] data) {
+			md.reset();
+			md.update(data);
+			return md.digest();
+		}
+
+		static String of(byte[] data) {
+			return String.format("%016X", new BigInteger(1, digest(data)));
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package scc.cache;
+
+/**
+ * Outcome of placing a bid atomically on a cached auction.
+ */
+public enum BidVerdict {
+
+    ACCEPTED(0),
+    AUCTION_MISSING(1),
+    AUCTION_NOT_OPEN(2),
+    SAME_OWNER(3),
+    BELOW_MIN_PRICE(4),
+    NOT_HIGHER(5);
+
+    private int code;
+
+    BidVerdict(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static BidVerdict of(long code) {
+        for (BidVerdict verdict : values())
+            if (verdict.code == code)
+                return verdict;
+        throw new IllegalArgumentException("Unknown bid verdict " + code);
+    }
+}
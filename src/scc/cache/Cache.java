@@ -0,0 +1,147 @@
+package scc.cache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import scc.srv.dataclasses.Bid;
+
+/**
+ * Cache used by the resources: expiring JSON values, sorted sets, atomic bid
+ * placement and consumer-group streams. Implemented over Redis and by an
+ * embedded in-process store.
+ */
+public interface Cache {
+
+	/**
+	 * Sorted set of open auction ids scored by their end time in milliseconds.
+	 */
+	String CLOSING_AUCTIONS = "auctions:closing";
+
+	/**
+	 * Stream every accepted bid is appended to by {@link #placeBid(String, Bid)}.
+	 */
+	String BID_JOURNAL = "bids:journal";
+
+	/**
+	 * Expiry for values that have to stay until they are overwritten or
+	 * deleted, such as open auctions holding a winning bid not yet written to
+	 * storage.
+	 */
+	int NO_EXPIRE = 0;
+
+	/**
+	 * Returns the raw value stored at key, or null if there is none.
+	 */
+	String get(String key);
+
+	/**
+	 * Returns the value stored at key deserialized as the given type, or null if
+	 * there is none. An entry that can not be parsed is treated as a miss.
+	 */
+	<T> T get(String key, Class<T> type);
+
+	boolean exists(String key);
+
+	/**
+	 * Stores the value serialized as JSON, expiring after the given seconds, or
+	 * never if expire is {@link #NO_EXPIRE}.
+	 */
+	void set(String key, Object value, int expire);
+
+	/**
+	 * Stores the value only if the key is not already set.
+	 * 
+	 * @return true if the value was stored
+	 */
+	boolean setIfAbsent(String key, Object value, int expire);
+
+	void delete(String key);
+
+	void zadd(String key, double score, String member);
+
+	void zrem(String key, String... members);
+
+	/**
+	 * Increments the member's score in each of the sorted sets, in one round
+	 * trip. Keys are mapped to their expiry in seconds, which is refreshed
+	 * when positive.
+	 */
+	void zincrby(Map<String, Integer> keys, double increment, String member);
+
+	/**
+	 * Stores the union of the sorted sets (scores summed) at dest, expiring
+	 * after the given seconds.
+	 */
+	void zunionstore(String dest, int expire, String... keys);
+
+	/**
+	 * Returns the count highest scored members with their scores, highest
+	 * first.
+	 */
+	Map<String, Double> zrevrangeWithScores(String key, int count);
+
+	/**
+	 * Removes the members scored between min and max, both inclusive.
+	 */
+	void zremRangeByScore(String key, double min, double max);
+
+	/**
+	 * Returns members scored between min and max in ascending score order,
+	 * skipping offset members and returning at most count.
+	 */
+	List<String> zrangeByScore(String key, double min, double max, int offset, int count);
+
+	/**
+	 * Adds members to the set at key and (re)sets its expiry in seconds.
+	 */
+	void sadd(String key, int expire, String... members);
+
+	/**
+	 * Members of the set at key, or null if there is no such set.
+	 */
+	Set<String> smembers(String key);
+
+	/**
+	 * Atomically validates the bid against the auction cached at key and, if it
+	 * wins, stores it as the auction's winning bid and appends it to
+	 * {@link #BID_JOURNAL}, so an accepted bid is never left unjournaled.
+	 */
+	BidVerdict placeBid(String key, Bid bid);
+
+	/**
+	 * Appends a payload to the end of a stream.
+	 */
+	void append(String stream, String payload);
+
+	/**
+	 * Creates the consumer group (and the stream) if it does not exist yet.
+	 */
+	void createGroup(String stream, String group);
+
+	/**
+	 * Reads up to count entries for the consumer, keyed by entry id. With
+	 * pending set, returns the entries already delivered to this consumer but
+	 * not acknowledged; otherwise waits up to blockMillis for new ones.
+	 */
+	Map<String, String> readGroup(String stream, String group, String consumer, int count, int blockMillis,
+			boolean pending);
+
+	/**
+	 * Takes over entries left unacknowledged by other consumers for longer than
+	 * minIdleMillis, so they show up in this consumer's pending entries.
+	 */
+	void claimStale(String stream, String group, String consumer, long minIdleMillis, int count);
+
+	/**
+	 * Number of times each of the first count entries pending for the consumer
+	 * has been delivered, keyed by entry id.
+	 */
+	Map<String, Long> deliveries(String stream, String group, String consumer, int count);
+
+	/**
+	 * Acknowledges the entries and removes them from the stream.
+	 */
+	void ack(String stream, String group, Collection<String> ids);
+}
@@ -0,0 +1,21 @@
+package scc.cache;
+
+/**
+ * Selects the cache backend from the "cache" environment variable: "memory"
+ * for the embedded store, anything else (or unset) for Redis.
+ */
+public class CacheFactory {
+	private static final String CACHE = System.getenv("cache");
+
+	private static Cache instance;
+
+	public static synchronized Cache getInstance() {
+		if (instance != null)
+			return instance;
+		if ("memory".equalsIgnoreCase(CACHE))
+			instance = MemoryCache.getInstance();
+		else
+			instance = RedisCache.getInstance();
+		return instance;
+	}
+}
@@ -0,0 +1,81 @@
+package scc.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import scc.srv.dataclasses.FollowedAuction;
+import scc.srv.dataclasses.FollowedAuction.Reason;
+
+/**
+ * The auctions each user follows, materialized in one set per user whose
+ * members are "REASON:auctionId". Bids and questions add to the set of their
+ * author as they are created, so reading it is a single lookup.
+ * 
+ * Writes always add to the set, even when it is missing or being rebuilt,
+ * and every write pushes its expiry an hour out. A rebuild from the database
+ * adds its members (the union with whatever was written meanwhile) along with
+ * an empty marker member; a set without the marker is incomplete and read as
+ * missing. Bids only reach the database through the write-behind, so a
+ * rebuild may miss recent ones, but those were already written to the set.
+ */
+public class FollowingIndex {
+
+    private static final String PREFIX = "following:";
+    private static final String BUILT = "";
+    private static final int EXPIRE = 3600;
+
+    private static FollowingIndex instance;
+
+    public static synchronized FollowingIndex getInstance() {
+        if (instance != null)
+            return instance;
+        instance = new FollowingIndex(CacheFactory.getInstance());
+        return instance;
+    }
+
+    private final Cache cache;
+
+    private FollowingIndex(Cache cache) {
+        this.cache = cache;
+    }
+
+    public void record(String userId, String auctionId, Reason reason) {
+        cache.sadd(PREFIX + userId, EXPIRE, reason.name() + ":" + auctionId);
+    }
+
+    /**
+     * The auctions the user follows ordered by id, or null if the index has
+     * to be rebuilt.
+     */
+    public Collection<FollowedAuction> get(String userId) {
+        Set<String> members = cache.smembers(PREFIX + userId);
+        if (members == null || !members.contains(BUILT))
+            return null;
+
+        Map<String, FollowedAuction> following = new TreeMap<>();
+        for (String member : members) {
+            int separator = member.indexOf(':');
+            if (separator < 0)
+                continue;
+            Reason reason = Reason.valueOf(member.substring(0, separator));
+            following.computeIfAbsent(member.substring(separator + 1), FollowedAuction::new).addReason(reason);
+        }
+        return following.values();
+    }
+
+    /**
+     * Adds the members rebuilt from the database and marks the set complete.
+     */
+    public void store(String userId, Collection<FollowedAuction> following) {
+        List<String> members = new ArrayList<>();
+        members.add(BUILT);
+        for (FollowedAuction auction : following)
+            for (Reason reason : auction.getReasons())
+                members.add(reason.name() + ":" + auction.getAuctionId());
+        cache.sadd(PREFIX + userId, EXPIRE, members.toArray(new String[0]));
+    }
+}
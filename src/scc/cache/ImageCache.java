@@ -0,0 +1,315 @@
+package scc.cache;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of image contents kept in direct buffers, outside the
+ * Java heap. Capacity is read in megabytes from the "media-cache-mb"
+ * environment variable.
+ *
+ * Eviction is frequency aware: every lookup is counted in a small count-min
+ * sketch that is halved periodically, and a new image is only admitted if it
+ * has been requested more often than the least recently used entries it would
+ * push out. One-off requests therefore cannot flush the popular images.
+ *
+ * Lookups never lock: the sketch is updated with CAS and entries live in a
+ * concurrent map. Misses are loaded by a background thread after the response
+ * has been served from disk, and admission and eviction only run there.
+ * Readers hold a {@link Lease} on the buffer, so an evicted buffer is freed
+ * as soon as its last reader is done instead of waiting for a GC.
+ */
+public class ImageCache {
+
+	private static final long DEFAULT_CAPACITY_MB = 128;
+	private static final int SKETCH_DEPTH = 4;
+	private static final int SKETCH_WIDTH = 1 << 16;
+	private static final int SKETCH_MAX = 15;
+	private static final int SKETCH_RESET = SKETCH_WIDTH * 8;
+	private static final int[] SKETCH_SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+	private static final int LOAD_QUEUE = 64;
+
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			System.err.println("Direct buffers of the image cache will be freed by the GC: " + e);
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private static ImageCache instance;
+
+	public static synchronized ImageCache getInstance() {
+		if (instance != null)
+			return instance;
+		String configured = System.getenv("media-cache-mb");
+		long capacityMb = configured != null ? Long.parseLong(configured) : DEFAULT_CAPACITY_MB;
+		instance = new ImageCache(capacityMb * 1024 * 1024);
+		return instance;
+	}
+
+	/**
+	 * A reader's hold on a cached image. The buffer must not be used after the
+	 * lease is closed.
+	 */
+	public static class Lease implements AutoCloseable {
+		private final Cached cached;
+		private final ByteBuffer buffer;
+
+		private Lease(Cached cached) {
+			this.cached = cached;
+			this.buffer = cached.buffer.asReadOnlyBuffer();
+		}
+
+		public ByteBuffer buffer() {
+			return buffer;
+		}
+
+		@Override
+		public void close() {
+			cached.release();
+		}
+	}
+
+	/**
+	 * A cached buffer, reference counted by the cache itself and its readers.
+	 */
+	private static class Cached {
+		final ByteBuffer buffer;
+		final AtomicInteger refs = new AtomicInteger(1);
+		volatile long lastAccess = System.nanoTime();
+
+		Cached(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		boolean acquire() {
+			int r;
+			do {
+				r = refs.get();
+				if (r == 0)
+					return false;
+			} while (!refs.compareAndSet(r, r + 1));
+			return true;
+		}
+
+		void release() {
+			if (refs.decrementAndGet() == 0)
+				free(buffer);
+		}
+	}
+
+	private final long capacity;
+	private final long maxEntry;
+	private final Map<String, Cached> entries = new ConcurrentHashMap<>();
+	private final AtomicIntegerArray sketch = new AtomicIntegerArray(SKETCH_DEPTH * SKETCH_WIDTH);
+	private final AtomicInteger increments = new AtomicInteger();
+	private final Set<String> loading = ConcurrentHashMap.newKeySet();
+	private final ExecutorService loader;
+	private volatile long used;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder admissions = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public ImageCache(long capacity) {
+		this.capacity = capacity;
+		// Direct buffers are int-indexed
+		this.maxEntry = Math.min(capacity / 8, Integer.MAX_VALUE);
+		this.loader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(LOAD_QUEUE), r -> {
+					Thread t = new Thread(r, "image-cache-loader");
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	/**
+	 * Returns a lease on the cached image, or null on a miss. Either way the
+	 * request is counted towards the image's popularity.
+	 */
+	public Lease get(String id) {
+		record(id);
+		Cached cached = entries.get(id);
+		if (cached == null || !cached.acquire()) {
+			misses.increment();
+			return null;
+		}
+		cached.lastAccess = System.nanoTime();
+		hits.increment();
+		return new Lease(cached);
+	}
+
+	/**
+	 * Schedules the image at path to be loaded into the cache if it is popular
+	 * enough to be admitted. Returns right away; the file is read by the loader
+	 * thread, and offers are dropped while it is busy.
+	 */
+	public void offer(String id, Path path, long size) {
+		if (size > maxEntry || entries.containsKey(id) || !loading.add(id))
+			return;
+		try {
+			loader.execute(() -> {
+				try {
+					load(id, path, size);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					loading.remove(id);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			loading.remove(id);
+		}
+	}
+
+	public Map<String, Object> stats() {
+		long h = hits.sum(), m = misses.sum();
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("capacityBytes", capacity);
+		stats.put("usedBytes", used);
+		stats.put("entries", entries.size());
+		stats.put("hits", h);
+		stats.put("misses", m);
+		stats.put("hitRatio", h + m == 0 ? 0.0 : (double) h / (h + m));
+		stats.put("admissions", admissions.sum());
+		stats.put("rejections", rejections.sum());
+		stats.put("evictions", evictions.sum());
+		return stats;
+	}
+
+	// PRIVATE METHODS
+
+	private void load(String id, Path path, long size) throws IOException {
+		if (victims(id, size) == null) {
+			rejections.increment();
+			return;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+				;
+		}
+		buffer.flip();
+
+		// Only the loader thread admits and evicts, so nothing changed meanwhile
+		// but the access times
+		List<Map.Entry<String, Cached>> victims = victims(id, size);
+		if (victims == null) {
+			rejections.increment();
+			free(buffer);
+			return;
+		}
+		for (Map.Entry<String, Cached> victim : victims) {
+			entries.remove(victim.getKey(), victim.getValue());
+			used -= victim.getValue().buffer.capacity();
+			victim.getValue().release();
+			evictions.increment();
+		}
+		entries.put(id, new Cached(buffer));
+		used += buffer.capacity();
+		admissions.increment();
+	}
+
+	/**
+	 * Entries that have to go for an image of the given size to fit, least
+	 * recently used first, or null if the image is too large or not more
+	 * popular than any of them.
+	 */
+	private List<Map.Entry<String, Cached>> victims(String id, long size) {
+		if (size > maxEntry)
+			return null;
+		List<Map.Entry<String, Cached>> victims = new ArrayList<>();
+		long free = capacity - used;
+		if (free >= size)
+			return victims;
+
+		int frequency = frequency(id);
+		List<Map.Entry<String, Cached>> lru = new ArrayList<>(entries.entrySet());
+		lru.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+		for (Map.Entry<String, Cached> eldest : lru) {
+			if (free >= size)
+				break;
+			if (frequency(eldest.getKey()) >= frequency)
+				return null;
+			victims.add(eldest);
+			free += eldest.getValue().buffer.capacity();
+		}
+		return free >= size ? victims : null;
+	}
+
+	private void record(String id) {
+		for (int i = 0; i < SKETCH_DEPTH; i++) {
+			int index = i * SKETCH_WIDTH + slot(id, i);
+			int count;
+			while ((count = sketch.get(index)) < SKETCH_MAX && !sketch.compareAndSet(index, count, count + 1))
+				;
+		}
+		// Age the counts so that images which used to be popular fade out; the
+		// thread whose CAS resets the counter does the halving
+		int n = increments.incrementAndGet();
+		if (n >= SKETCH_RESET && increments.compareAndSet(n, 0))
+			for (int j = 0; j < sketch.length(); j++)
+				sketch.updateAndGet(j, count -> count >> 1);
+	}
+
+	private int frequency(String id) {
+		int min = SKETCH_MAX;
+		for (int i = 0; i < SKETCH_DEPTH; i++)
+			min = Math.min(min, sketch.get(i * SKETCH_WIDTH + slot(id, i)));
+		return min;
+	}
+
+	private static int slot(String id, int row) {
+		int h = id.hashCode() * SKETCH_SEEDS[row];
+		return (h ^ (h >>> 16)) & (SKETCH_WIDTH - 1);
+	}
+
+	/**
+	 * Releases a direct buffer's memory right away through
+	 * Unsafe.invokeCleaner, leaving it to the GC if that is not available.
+	 */
+	private static void free(ByteBuffer buffer) {
+		if (INVOKE_CLEANER == null)
+			return;
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		} catch (ReflectiveOperationException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package scc.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import scc.srv.dataclasses.Auction;
+import scc.srv.dataclasses.AuctionStatus;
+import scc.srv.dataclasses.Bid;
+import scc.utils.Json;
+
+/**
+ * Embedded {@link Cache} for single-node deployments and benchmarks. Keys
+ * expire lazily on access and through a periodic sweep. Sorted sets and
+ * streams follow the Redis semantics the rest of the code relies on, and bid
+ * placement is an atomic compare-and-set on the auction entry.
+ * 
+ * Nothing survives a restart, so the write-behind journal is only as durable
+ * as the process.
+ */
+public class MemoryCache implements Cache {
+
+	private static final long SWEEP_PERIOD = 60;
+
+	private static MemoryCache instance;
+
+	public static synchronized MemoryCache getInstance() {
+		if (instance != null)
+			return instance;
+		instance = new MemoryCache();
+		return instance;
+	}
+
+	/**
+	 * A stored value (JSON string, sorted set or stream) and its expiry time,
+	 * 0 meaning it never expires.
+	 */
+	private static class Entry {
+		final Object value;
+		volatile long expiresAt;
+
+		Entry(Object value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean expired(long now) {
+			return expiresAt != 0 && expiresAt <= now;
+		}
+	}
+
+	private static class ScoredMember implements Comparable<ScoredMember> {
+		final double score;
+		final String member;
+
+		ScoredMember(double score, String member) {
+			this.score = score;
+			this.member = member;
+		}
+
+		@Override
+		public int compareTo(ScoredMember other) {
+			int c = Double.compare(score, other.score);
+			return c != 0 ? c : member.compareTo(other.member);
+		}
+	}
+
+	private static class SortedSet {
+		final Map<String, Double> scores = new HashMap<>();
+		final TreeSet<ScoredMember> ordered = new TreeSet<>();
+
+		synchronized void add(String member, double score) {
+			Double old = scores.put(member, score);
+			if (old != null)
+				ordered.remove(new ScoredMember(old, member));
+			ordered.add(new ScoredMember(score, member));
+		}
+
+		synchronized void remove(String member) {
+			Double old = scores.remove(member);
+			if (old != null)
+				ordered.remove(new ScoredMember(old, member));
+		}
+
+		synchronized void increment(String member, double increment) {
+			add(member, scores.getOrDefault(member, 0.0) + increment);
+		}
+
+		synchronized Map<String, Double> snapshot() {
+			return new HashMap<>(scores);
+		}
+	}
+
+	private static class Pending {
+		String consumer;
+		long deliveredAt;
+		long deliveries = 1;
+
+		Pending(String consumer, long deliveredAt) {
+			this.consumer = consumer;
+			this.deliveredAt = deliveredAt;
+		}
+	}
+
+	private static class Group {
+		long lastDelivered;
+		final Map<Long, Pending> pending = new LinkedHashMap<>();
+	}
+
+	private static class Stream {
+		long lastId;
+		final LinkedHashMap<Long, String> entries = new LinkedHashMap<>();
+		final Map<String, Group> groups = new HashMap<>();
+	}
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private MemoryCache() {
+		ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "cache-sweeper");
+			t.setDaemon(true);
+			return t;
+		});
+		sweeper.scheduleAtFixedRate(this::sweep, SWEEP_PERIOD, SWEEP_PERIOD, TimeUnit.SECONDS);
+	}
+
+	// VALUES
+
+	public String get(String key) {
+		Object value = value(key);
+		return value instanceof String ? (String) value : null;
+	}
+
+	public <T> T get(String key, Class<T> type) {
+		String value = get(key);
+		if (value == null)
+			return null;
+		try {
+			return Json.read(value, type);
+		} catch (JsonProcessingException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public boolean exists(String key) {
+		return value(key) != null;
+	}
+
+	public void set(String key, Object value, int expire) {
+		entries.put(key, new Entry(toJson(value), expiry(expire)));
+	}
+
+	public boolean setIfAbsent(String key, Object value, int expire) {
+		String json = toJson(value);
+		long now = System.currentTimeMillis();
+		boolean[] stored = new boolean[1];
+		entries.compute(key, (k, old) -> {
+			if (old != null && !old.expired(now))
+				return old;
+			stored[0] = true;
+			return new Entry(json, expiry(expire));
+		});
+		return stored[0];
+	}
+
+	public void delete(String key) {
+		entries.remove(key);
+	}
+
+	// SORTED SETS
+
+	public void zadd(String key, double score, String member) {
+		sortedSet(key, true).add(member, score);
+	}
+
+	public void zrem(String key, String... members) {
+		SortedSet set = sortedSet(key, false);
+		if (set == null)
+			return;
+		for (String member : members)
+			set.remove(member);
+	}
+
+	public void zincrby(Map<String, Integer> keys, double increment, String member) {
+		for (Map.Entry<String, Integer> key : keys.entrySet()) {
+			sortedSet(key.getKey(), true).increment(member, increment);
+			if (key.getValue() > 0) {
+				Entry entry = entries.get(key.getKey());
+				if (entry != null)
+					entry.expiresAt = expiry(key.getValue());
+			}
+		}
+	}
+
+	public void zunionstore(String dest, int expire, String... keys) {
+		SortedSet union = new SortedSet();
+		for (String key : keys) {
+			SortedSet set = sortedSet(key, false);
+			if (set != null)
+				for (Map.Entry<String, Double> member : set.snapshot().entrySet())
+					union.increment(member.getKey(), member.getValue());
+		}
+		entries.put(dest, new Entry(union, expiry(expire)));
+	}
+
+	public Map<String, Double> zrevrangeWithScores(String key, int count) {
+		Map<String, Double> members = new LinkedHashMap<>();
+		SortedSet set = sortedSet(key, false);
+		if (set == null)
+			return members;
+		synchronized (set) {
+			Iterator<ScoredMember> it = set.ordered.descendingIterator();
+			while (it.hasNext() && members.size() < count) {
+				ScoredMember scored = it.next();
+				members.put(scored.member, scored.score);
+			}
+		}
+		return members;
+	}
+
+	public void zremRangeByScore(String key, double min, double max) {
+		SortedSet set = sortedSet(key, false);
+		if (set == null)
+			return;
+		synchronized (set) {
+			for (String member : rangeByScore(set, min, max, 0, Integer.MAX_VALUE))
+				set.remove(member);
+		}
+	}
+
+	public List<String> zrangeByScore(String key, double min, double max, int offset, int count) {
+		SortedSet set = sortedSet(key, false);
+		if (set == null)
+			return new ArrayList<>();
+		synchronized (set) {
+			return rangeByScore(set, min, max, offset, count);
+		}
+	}
+
+	// SETS
+
+	public void sadd(String key, int expire, String... members) {
+		long now = System.currentTimeMillis();
+		Entry entry = entries.compute(key, (k, old) -> {
+			if (old != null && !old.expired(now) && old.value instanceof Set)
+				return old;
+			return new Entry(ConcurrentHashMap.newKeySet(), 0);
+		});
+		set(entry).addAll(Arrays.asList(members));
+		if (expire > 0)
+			entry.expiresAt = expiry(expire);
+	}
+
+	public Set<String> smembers(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null || entry.expired(System.currentTimeMillis()) || !(entry.value instanceof Set))
+			return null;
+		return new HashSet<>(set(entry));
+	}
+
+	// BIDS
+
+	/**
+	 * The journal append follows the compare-and-set; in-process it can not
+	 * fail in between.
+	 */
+	public BidVerdict placeBid(String key, Bid bid) {
+		long now = System.currentTimeMillis();
+		BidVerdict[] verdict = new BidVerdict[1];
+		entries.computeIfPresent(key, (k, entry) -> {
+			if (entry.expired(now) || !(entry.value instanceof String)) {
+				verdict[0] = BidVerdict.AUCTION_MISSING;
+				return entry;
+			}
+			Auction auction;
+			try {
+				auction = Json.read((String) entry.value, Auction.class);
+			} catch (JsonProcessingException e) {
+				verdict[0] = BidVerdict.AUCTION_MISSING;
+				return entry;
+			}
+			verdict[0] = judge(auction, bid);
+			if (verdict[0] != BidVerdict.ACCEPTED)
+				return entry;
+			auction.setWinningBid(bid);
+			return new Entry(toJson(auction), entry.expiresAt);
+		});
+		if (verdict[0] == BidVerdict.ACCEPTED)
+			append(BID_JOURNAL, toJson(bid));
+		return verdict[0] == null ? BidVerdict.AUCTION_MISSING : verdict[0];
+	}
+
+	// STREAMS
+
+	public void append(String stream, String payload) {
+		Stream s = stream(stream);
+		synchronized (s) {
+			s.entries.put(++s.lastId, payload);
+			s.notifyAll();
+		}
+	}
+
+	public void createGroup(String stream, String group) {
+		Stream s = stream(stream);
+		synchronized (s) {
+			s.groups.putIfAbsent(group, new Group());
+		}
+	}
+
+	public Map<String, String> readGroup(String stream, String group, String consumer, int count,
+			int blockMillis, boolean pending) {
+		Map<String, String> result = new LinkedHashMap<>();
+		Stream s = stream(stream);
+		synchronized (s) {
+			Group g = s.groups.get(group);
+			if (g == null)
+				throw new IllegalStateException("No such consumer group " + group);
+
+			if (pending) {
+				for (Map.Entry<Long, Pending> p : g.pending.entrySet()) {
+					if (result.size() >= count)
+						break;
+					if (p.getValue().consumer.equals(consumer) && s.entries.containsKey(p.getKey())) {
+						result.put(String.valueOf(p.getKey()), s.entries.get(p.getKey()));
+						p.getValue().deliveries++;
+					}
+				}
+				return result;
+			}
+
+			long deadline = System.currentTimeMillis() + blockMillis;
+			while (s.lastId <= g.lastDelivered) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0)
+					return result;
+				try {
+					s.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return result;
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			for (Map.Entry<Long, String> e : s.entries.entrySet()) {
+				if (result.size() >= count)
+					break;
+				if (e.getKey() <= g.lastDelivered)
+					continue;
+				result.put(String.valueOf(e.getKey()), e.getValue());
+				g.pending.put(e.getKey(), new Pending(consumer, now));
+				g.lastDelivered = e.getKey();
+			}
+		}
+		return result;
+	}
+
+	public void claimStale(String stream, String group, String consumer, long minIdleMillis, int count) {
+		Stream s = stream(stream);
+		synchronized (s) {
+			Group g = s.groups.get(group);
+			if (g == null)
+				return;
+			long now = System.currentTimeMillis();
+			int claimed = 0;
+			for (Pending p : g.pending.values()) {
+				if (claimed >= count)
+					break;
+				if (!p.consumer.equals(consumer) && now - p.deliveredAt >= minIdleMillis) {
+					p.consumer = consumer;
+					p.deliveredAt = now;
+					p.deliveries++;
+					claimed++;
+				}
+			}
+		}
+	}
+
+	public Map<String, Long> deliveries(String stream, String group, String consumer, int count) {
+		Map<String, Long> deliveries = new LinkedHashMap<>();
+		Stream s = stream(stream);
+		synchronized (s) {
+			Group g = s.groups.get(group);
+			if (g == null)
+				return deliveries;
+			for (Map.Entry<Long, Pending> p : g.pending.entrySet()) {
+				if (deliveries.size() >= count)
+					break;
+				if (p.getValue().consumer.equals(consumer))
+					deliveries.put(String.valueOf(p.getKey()), p.getValue().deliveries);
+			}
+		}
+		return deliveries;
+	}
+
+	public void ack(String stream, String group, Collection<String> ids) {
+		Stream s = stream(stream);
+		synchronized (s) {
+			Group g = s.groups.get(group);
+			for (String id : ids) {
+				long entryId = Long.parseLong(id);
+				if (g != null)
+					g.pending.remove(entryId);
+				s.entries.remove(entryId);
+			}
+		}
+	}
+
+	// PRIVATE METHODS
+
+	private static BidVerdict judge(Auction auction, Bid bid) {
+		if (!AuctionStatus.OPEN.getStatus().equals(auction.getStatus()))
+			return BidVerdict.AUCTION_NOT_OPEN;
+		if (auction.getOwnerId() != null && auction.getOwnerId().equals(bid.getUserId()))
+			return BidVerdict.SAME_OWNER;
+		if (bid.getAmount() < auction.getMinPrice())
+			return BidVerdict.BELOW_MIN_PRICE;
+		if (auction.getWinningBid() != null && auction.getWinningBid().getAmount() >= bid.getAmount())
+			return BidVerdict.NOT_HIGHER;
+		return BidVerdict.ACCEPTED;
+	}
+
+	private static List<String> rangeByScore(SortedSet set, double min, double max, int offset, int count) {
+		List<String> members = new ArrayList<>();
+		int skipped = 0;
+		for (ScoredMember scored : set.ordered.tailSet(new ScoredMember(min, ""), true)) {
+			if (scored.score > max || members.size() >= count)
+				break;
+			if (skipped++ < offset)
+				continue;
+			members.add(scored.member);
+		}
+		return members;
+	}
+
+	/**
+	 * Live value at key, dropping it if it has expired.
+	 */
+	private Object value(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null)
+			return null;
+		if (entry.expired(System.currentTimeMillis())) {
+			entries.remove(key, entry);
+			return null;
+		}
+		return entry.value;
+	}
+
+	private SortedSet sortedSet(String key, boolean create) {
+		if (!create) {
+			Object value = value(key);
+			return value instanceof SortedSet ? (SortedSet) value : null;
+		}
+		long now = System.currentTimeMillis();
+		Entry entry = entries.compute(key, (k, old) -> {
+			if (old != null && !old.expired(now) && old.value instanceof SortedSet)
+				return old;
+			return new Entry(new SortedSet(), 0);
+		});
+		return (SortedSet) entry.value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Set<String> set(Entry entry) {
+		return (Set<String>) entry.value;
+	}
+
+	private Stream stream(String key) {
+		Entry entry = entries.computeIfAbsent(key, k -> new Entry(new Stream(), 0));
+		if (!(entry.value instanceof Stream))
+			throw new IllegalStateException(key + " does not hold a stream");
+		return (Stream) entry.value;
+	}
+
+	private void sweep() {
+		long now = System.currentTimeMillis();
+		entries.entrySet().removeIf(e -> e.getValue().expired(now));
+	}
+
+	private static long expiry(int expire) {
+		return expire > 0 ? System.currentTimeMillis() + expire * 1000L : 0;
+	}
+
+	private static String toJson(Object value) {
+		try {
+			return Json.write(value);
+		} catch (JsonProcessingException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package scc.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Small in-process cache kept in front of Redis. Entries expire after a fixed
+ * time to live, which bounds how stale a value can get if an invalidation is
+ * lost, and the least recently used entry is evicted once the capacity is
+ * reached.
+ *
+ * Values are kept serialized, so every reader deserializes its own copy.
+ * Each key maps to a version counter that {@link #invalidate(String)} bumps; a
+ * value read from Redis is only stored if the version is unchanged since
+ * before the read, so an invalidation that lands in between is never undone.
+ */
+public class NearCache {
+
+	private static final int VERSION_STRIPES = 4096;
+
+	private static class Cached {
+		final byte[] value;
+		final long expiresAt;
+
+		Cached(byte[] value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final int capacity;
+	private final long ttlMillis;
+	private final Map<String, Cached> entries;
+	private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+	public NearCache(int capacity, long ttlMillis) {
+		this.capacity = capacity;
+		this.ttlMillis = ttlMillis;
+		// Access ordered, so the eldest entry is the least recently used one
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+				return size() > NearCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Version to pass to {@link #put(String, byte[], long)}, read before the
+	 * value is fetched.
+	 */
+	public long version(String key) {
+		return versions.get(stripe(key));
+	}
+
+	/**
+	 * Returns the serialized value cached at key if it is present and not
+	 * expired, or null otherwise.
+	 */
+	public byte[] get(String key) {
+		synchronized (entries) {
+			Cached cached = entries.get(key);
+			if (cached == null)
+				return null;
+			if (cached.expiresAt < System.currentTimeMillis()) {
+				entries.remove(key);
+				return null;
+			}
+			return cached.value;
+		}
+	}
+
+	/**
+	 * Stores the value unless the key was invalidated since version was read.
+	 */
+	public void put(String key, byte[] value, long version) {
+		if (versions.get(stripe(key)) != version)
+			return;
+		Cached cached = new Cached(value, System.currentTimeMillis() + ttlMillis);
+		synchronized (entries) {
+			// Checked under the lock, since invalidate bumps the version before
+			// taking it to remove the key
+			if (versions.get(stripe(key)) == version)
+				entries.put(key, cached);
+		}
+	}
+
+	public void invalidate(String key) {
+		versions.incrementAndGet(stripe(key));
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+
+	private static int stripe(String key) {
+		return (key.hashCode() & 0x7fffffff) % VERSION_STRIPES;
+	}
+}
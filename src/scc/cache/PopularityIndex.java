@@ -0,0 +1,115 @@
+package scc.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import scc.srv.dataclasses.PopularAuction;
+
+/**
+ * Bid counts per auction, maintained online in Redis sorted sets. Every
+ * accepted bid increments the all-time ranking and the buckets of the current
+ * minute and hour. Minute buckets expire after an hour and hourly buckets
+ * after a day, so the last hour and last day rankings are read from the union
+ * of the 60 latest minute buckets and of the 24 latest hour buckets.
+ */
+public class PopularityIndex {
+
+    private static final String ALL_KEY = "auctions:popular";
+    private static final String HOUR_KEY = "auctions:popular:hour";
+    private static final String DAY_KEY = "auctions:popular:day";
+    private static final String FRESH_SUFFIX = ":fresh";
+    private static final String MINUTE_PREFIX = "auctions:popular:m:";
+    private static final String HOUR_PREFIX = "auctions:popular:h:";
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int HOURS_PER_DAY = 24;
+    private static final int MINUTE_BUCKET_EXPIRE = (MINUTES_PER_HOUR + 1) * 60;
+    private static final int HOUR_BUCKET_EXPIRE = (HOURS_PER_DAY + 1) * 3600;
+    private static final int HOUR_UNION_EXPIRE = 10;
+    private static final int DAY_UNION_EXPIRE = 60;
+
+    /**
+     * Time window a ranking is computed over.
+     */
+    public enum Window {
+        ALL, HOUR, DAY;
+
+        public static Window of(String name) {
+            for (Window window : values())
+                if (window.name().equalsIgnoreCase(name))
+                    return window;
+            throw new IllegalArgumentException("Unknown window " + name);
+        }
+    }
+
+    private static PopularityIndex instance;
+
+    public static synchronized PopularityIndex getInstance() {
+        if (instance != null)
+            return instance;
+        instance = new PopularityIndex(CacheFactory.getInstance());
+        return instance;
+    }
+
+    private final Cache cache;
+
+    private PopularityIndex(Cache cache) {
+        this.cache = cache;
+    }
+
+    public void recordBid(String auctionId) {
+        cache.zincrby(Map.of(ALL_KEY, 0,
+                MINUTE_PREFIX + currentMinute(), MINUTE_BUCKET_EXPIRE,
+                HOUR_PREFIX + currentHour(), HOUR_BUCKET_EXPIRE), 1, auctionId);
+    }
+
+    /**
+     * Returns the count auctions with most bids in the window, most bids first.
+     */
+    public List<PopularAuction> top(Window window, int count) {
+        String key;
+        switch (window) {
+            case HOUR:
+                key = union(HOUR_KEY, HOUR_UNION_EXPIRE, MINUTE_PREFIX, currentMinute(), MINUTES_PER_HOUR);
+                break;
+            case DAY:
+                key = union(DAY_KEY, DAY_UNION_EXPIRE, HOUR_PREFIX, currentHour(), HOURS_PER_DAY);
+                break;
+            default:
+                key = ALL_KEY;
+        }
+
+        List<PopularAuction> list = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : cache.zrevrangeWithScores(key, count).entrySet())
+            list.add(new PopularAuction(entry.getKey(), entry.getValue().intValue()));
+        return list;
+    }
+
+    /**
+     * Stores the union of the latest buckets at dest and shares it for expire
+     * seconds. A separate marker key tracks freshness, because an empty union
+     * is not stored at all and would otherwise be recomputed on every call.
+     * The marker is only set once the union is stored, so a concurrent reader
+     * never finds it ahead of the data; the previous union outlives its
+     * marker by a second and is served until it is replaced.
+     */
+    private String union(String dest, int expire, String prefix, long current, int buckets) {
+        String fresh = dest + FRESH_SUFFIX;
+        if (!cache.exists(fresh)) {
+            String[] keys = new String[buckets];
+            for (int i = 0; i < buckets; i++)
+                keys[i] = prefix + (current - i);
+            cache.zunionstore(dest, expire + 1, keys);
+            cache.set(fresh, current, expire);
+        }
+        return dest;
+    }
+
+    private static long currentMinute() {
+        return System.currentTimeMillis() / 60000;
+    }
+
+    private static long currentHour() {
+        return System.currentTimeMillis() / 3600000;
+    }
+}
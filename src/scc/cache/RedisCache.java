@@ -1,19 +1,86 @@
 package scc.cache;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XPendingParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.resps.StreamPendingEntry;
+import redis.clients.jedis.resps.Tuple;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.util.SafeEncoder;
+import scc.srv.dataclasses.AuctionStatus;
+import scc.srv.dataclasses.Bid;
+import scc.utils.Json;
 
-public class RedisCache {
+/**
+ * {@link Cache} over the Redis pool. Every operation borrows a connection
+ * from the pool and returns it when done, so concurrent requests never share a
+ * Jedis instance and cache throughput scales with the pool size.
+ * 
+ * Auctions, users and sessions are also kept in a {@link NearCache}. Every
+ * write to one of those keys is published on a Redis channel so the other
+ * replicas drop their local copy.
+ */
+public class RedisCache implements Cache {
 	private static final String RedisHostname = System.getenv("redis");
 
-	private static JedisPool instance;
+	private static final int NEAR_CACHE_CAPACITY = 10000;
+	private static final long NEAR_CACHE_TTL = 30000;
+	private static final String INVALIDATION_CHANNEL = "cache:invalidate";
+	private static final String STREAM_FIELD = "payload";
+	private static final String[] NEAR_CACHED_PREFIXES = { "auction:", "user:", "session:" };
+
+	/**
+	 * Checks the bid against the cached auction and installs it as the winning
+	 * bid in one step, journaling it in the same script. Returns a
+	 * {@link BidVerdict} code.
+	 * KEYS[1] auction key, KEYS[2] journal stream, ARGV[1] bid JSON, ARGV[2]
+	 * open status, ARGV[3] invalidation channel, ARGV[4] invalidation message,
+	 * ARGV[5] stream field.
+	 */
+	private static final String PLACE_BID_SCRIPT = String.join("\n",
+			"local raw = redis.call('GET', KEYS[1])",
+			"if not raw then return 1 end",
+			"local auction = cjson.decode(raw)",
+			"local bid = cjson.decode(ARGV[1])",
+			"if auction.status ~= ARGV[2] then return 2 end",
+			"if auction.ownerId == bid.userId then return 3 end",
+			"if bid.amount < auction.minPrice then return 4 end",
+			"local winning = auction.winningBid",
+			"if winning ~= nil and winning ~= cjson.null and winning.amount >= bid.amount then return 5 end",
+			"auction.winningBid = bid",
+			"redis.call('SET', KEYS[1], cjson.encode(auction), 'KEEPTTL')",
+			"redis.call('XADD', KEYS[2], '*', ARGV[5], ARGV[1])",
+			"redis.call('PUBLISH', ARGV[3], ARGV[4])",
+			"return 0");
+
+	private static JedisPool pool;
+	private static RedisCache instance;
 
 	public synchronized static JedisPool getCachePool() {
+		if (pool != null)
+			return pool;
 
 		System.out.println("REDIS HOSTNAME: " + RedisHostname);
-
-		if (instance != null)
-			return instance;
 		final JedisPoolConfig poolConfig = new JedisPoolConfig();
 		poolConfig.setMaxTotal(128);
 		poolConfig.setMaxIdle(128);
@@ -23,8 +90,320 @@ public class RedisCache {
 		poolConfig.setTestWhileIdle(true);
 		poolConfig.setNumTestsPerEvictionRun(3);
 		poolConfig.setBlockWhenExhausted(true);
-		instance = new JedisPool(poolConfig, RedisHostname, 6379, 1000, false);
+		pool = new JedisPool(poolConfig, RedisHostname, 6379, 1000, false);
+		return pool;
+
+	}
+
+	public synchronized static RedisCache getInstance() {
+		if (instance != null)
+			return instance;
+		instance = new RedisCache(getCachePool());
 		return instance;
+	}
+
+	private final JedisPool jedisPool;
+	private final NearCache nearCache;
+	private final String replicaId;
+	private final Map<String, String> scriptShas = new ConcurrentHashMap<>();
+
+	private RedisCache(JedisPool jedisPool) {
+		this.jedisPool = jedisPool;
+		this.nearCache = new NearCache(NEAR_CACHE_CAPACITY, NEAR_CACHE_TTL);
+		this.replicaId = UUID.randomUUID().toString();
+
+		Thread subscriber = new Thread(this::listenInvalidations, "cache-invalidation");
+		subscriber.setDaemon(true);
+		subscriber.start();
+	}
+
+	public String get(String key) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			return jedis.get(key);
+		}
+	}
+
+	public <T> T get(String key, Class<T> type) {
+		boolean near = isNearCached(key);
+		byte[] value = near ? nearCache.get(key) : null;
+		if (value == null) {
+			long version = near ? nearCache.version(key) : 0;
+			try (Jedis jedis = jedisPool.getResource()) {
+				value = jedis.get(SafeEncoder.encode(key));
+			}
+			if (value == null)
+				return null;
+			if (near)
+				nearCache.put(key, value, version);
+		}
+		try {
+			return Json.read(value, type);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public boolean exists(String key) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			return jedis.exists(key);
+		}
+	}
+
+	public void set(String key, Object value, int expire) {
+		byte[] json = toJson(value);
+		try (Jedis jedis = jedisPool.getResource()) {
+			if (expire > 0)
+				jedis.setex(SafeEncoder.encode(key), expire, json);
+			else
+				jedis.set(SafeEncoder.encode(key), json);
+			if (isNearCached(key)) {
+				nearCache.invalidate(key);
+				jedis.publish(INVALIDATION_CHANNEL, replicaId + " " + key);
+			}
+		}
+	}
+
+	public boolean setIfAbsent(String key, Object value, int expire) {
+		byte[] json = toJson(value);
+		try (Jedis jedis = jedisPool.getResource()) {
+			SetParams params = SetParams.setParams().nx();
+			if (expire > 0)
+				params.ex(expire);
+			boolean stored = jedis.set(SafeEncoder.encode(key), json, params) != null;
+			if (stored && isNearCached(key)) {
+				nearCache.invalidate(key);
+				jedis.publish(INVALIDATION_CHANNEL, replicaId + " " + key);
+			}
+			return stored;
+		}
+	}
+
+	public void delete(String key) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			jedis.del(key);
+			if (isNearCached(key)) {
+				nearCache.invalidate(key);
+				jedis.publish(INVALIDATION_CHANNEL, replicaId + " " + key);
+			}
+		}
+	}
+
+	public void zadd(String key, double score, String member) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			jedis.zadd(key, score, member);
+		}
+	}
+
+	public void zrem(String key, String... members) {
+		if (members.length == 0)
+			return;
+		try (Jedis jedis = jedisPool.getResource()) {
+			jedis.zrem(key, members);
+		}
+	}
+
+	/**
+	 * All commands go in a single round trip.
+	 */
+	public void zincrby(Map<String, Integer> keys, double increment, String member) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			Pipeline pipeline = jedis.pipelined();
+			for (Map.Entry<String, Integer> key : keys.entrySet()) {
+				pipeline.zincrby(key.getKey(), increment, member);
+				if (key.getValue() > 0)
+					pipeline.expire(key.getKey(), key.getValue());
+			}
+			pipeline.sync();
+		}
+	}
+
+	public void zunionstore(String dest, int expire, String... keys) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			Pipeline pipeline = jedis.pipelined();
+			pipeline.zunionstore(dest, keys);
+			pipeline.expire(dest, expire);
+			pipeline.sync();
+		}
+	}
+
+	public Map<String, Double> zrevrangeWithScores(String key, int count) {
+		Map<String, Double> members = new LinkedHashMap<>();
+		if (count <= 0)
+			return members;
+		try (Jedis jedis = jedisPool.getResource()) {
+			for (Tuple tuple : jedis.zrevrangeWithScores(key, 0, count - 1))
+				members.put(tuple.getElement(), tuple.getScore());
+		}
+		return members;
+	}
+
+	public void zremRangeByScore(String key, double min, double max) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			jedis.zremrangeByScore(key, min, max);
+		}
+	}
+
+	public List<String> zrangeByScore(String key, double min, double max, int offset, int count) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			return jedis.zrangeByScore(key, min, max, offset, count);
+		}
+	}
+
+	/**
+	 * Runs the bid script, one round trip.
+	 */
+	public BidVerdict placeBid(String key, Bid bid) {
+		List<byte[]> keys = List.of(SafeEncoder.encode(key), SafeEncoder.encode(BID_JOURNAL));
+		List<byte[]> args = List.of(toJson(bid), SafeEncoder.encode(AuctionStatus.OPEN.getStatus()),
+				SafeEncoder.encode(INVALIDATION_CHANNEL), SafeEncoder.encode(replicaId + " " + key),
+				SafeEncoder.encode(STREAM_FIELD));
+		Object result;
+		try (Jedis jedis = jedisPool.getResource()) {
+			result = evalScript(jedis, PLACE_BID_SCRIPT, keys, args);
+		}
+		nearCache.invalidate(key);
+		return BidVerdict.of((Long) result);
+	}
+
+	/**
+	 * Both commands go in a single round trip.
+	 */
+	public void sadd(String key, int expire, String... members) {
+		if (members.length == 0)
+			return;
+		try (Jedis jedis = jedisPool.getResource()) {
+			Pipeline pipeline = jedis.pipelined();
+			pipeline.sadd(key, members);
+			if (expire > 0)
+				pipeline.expire(key, expire);
+			pipeline.sync();
+		}
+	}
+
+	public Set<String> smembers(String key) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			Set<String> members = jedis.smembers(key);
+			return members.isEmpty() ? null : members;
+		}
+	}
+
+	public void append(String stream, String payload) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			jedis.xadd(stream, StreamEntryID.NEW_ENTRY, Map.of(STREAM_FIELD, payload));
+		}
+	}
+
+	public void createGroup(String stream, String group) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			jedis.xgroupCreate(stream, group, new StreamEntryID(), true);
+		} catch (JedisDataException e) {
+			if (!e.getMessage().startsWith("BUSYGROUP"))
+				throw e;
+		}
+	}
+
+	public Map<String, String> readGroup(String stream, String group, String consumer, int count,
+			int blockMillis, boolean pending) {
+		XReadGroupParams params = XReadGroupParams.xReadGroupParams().count(count);
+		if (!pending)
+			params.block(blockMillis);
+		StreamEntryID from = pending ? new StreamEntryID() : StreamEntryID.UNRECEIVED_ENTRY;
+
+		Map<String, String> entries = new LinkedHashMap<>();
+		try (Jedis jedis = jedisPool.getResource()) {
+			List<Map.Entry<String, List<StreamEntry>>> result = jedis.xreadGroup(group, consumer, params,
+					Map.of(stream, from));
+			if (result == null)
+				return entries;
+			for (Map.Entry<String, List<StreamEntry>> streamEntries : result)
+				for (StreamEntry entry : streamEntries.getValue())
+					entries.put(entry.getID().toString(), entry.getFields().get(STREAM_FIELD));
+		}
+		return entries;
+	}
+
+	public void claimStale(String stream, String group, String consumer, long minIdleMillis, int count) {
+		try (Jedis jedis = jedisPool.getResource()) {
+			jedis.xautoclaimJustId(stream, group, consumer, minIdleMillis, new StreamEntryID(),
+					XAutoClaimParams.xAutoClaimParams().count(count));
+		}
+	}
+
+	public Map<String, Long> deliveries(String stream, String group, String consumer, int count) {
+		Map<String, Long> deliveries = new LinkedHashMap<>();
+		try (Jedis jedis = jedisPool.getResource()) {
+			for (StreamPendingEntry entry : jedis.xpending(stream, group,
+					XPendingParams.xPendingParams("-", "+", count).consumer(consumer)))
+				deliveries.put(entry.getID().toString(), entry.getDeliveredTimes());
+		}
+		return deliveries;
+	}
+
+	public void ack(String stream, String group, Collection<String> ids) {
+		if (ids.isEmpty())
+			return;
+		StreamEntryID[] entryIds = ids.stream().map(StreamEntryID::new).toArray(StreamEntryID[]::new);
+		try (Jedis jedis = jedisPool.getResource()) {
+			jedis.xack(stream, group, entryIds);
+			jedis.xdel(stream, entryIds);
+		}
+	}
+
+	private boolean isNearCached(String key) {
+		for (String prefix : NEAR_CACHED_PREFIXES)
+			if (key.startsWith(prefix))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Blocks on the invalidation channel, dropping keys written by other
+	 * replicas. Reconnects if the subscription is lost.
+	 */
+	private void listenInvalidations() {
+		JedisPubSub listener = new JedisPubSub() {
+			@Override
+			public void onMessage(String channel, String message) {
+				int sep = message.indexOf(' ');
+				if (sep < 0 || !message.startsWith(replicaId))
+					nearCache.invalidate(message.substring(sep + 1));
+			}
+		};
+		while (true) {
+			try (Jedis jedis = jedisPool.getResource()) {
+				jedis.subscribe(listener, INVALIDATION_CHANNEL);
+			} catch (Exception e) {
+				e.printStackTrace();
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a script by its SHA, loading it on first use and again if the
+	 * script cache was flushed (e.g. Redis restarted).
+	 */
+	private Object evalScript(Jedis jedis, String script, List<byte[]> keys, List<byte[]> args) {
+		String sha = scriptShas.computeIfAbsent(script, jedis::scriptLoad);
+		try {
+			return jedis.evalsha(SafeEncoder.encode(sha), keys, args);
+		} catch (JedisNoScriptException e) {
+			sha = jedis.scriptLoad(script);
+			scriptShas.put(script, sha);
+			return jedis.evalsha(SafeEncoder.encode(sha), keys, args);
+		}
+	}
 
+	private static byte[] toJson(Object value) {
+		try {
+			return Json.writeBytes(value);
+		} catch (JsonProcessingException e) {
+			throw new IllegalArgumentException(e);
+		}
 	}
-}
\ No newline at end of file
+}
@@ -1,28 +1,44 @@
 package scc.cosmosdb;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
 import com.azure.cosmos.ConsistencyLevel;
 import com.azure.cosmos.CosmosClient;
 import com.azure.cosmos.CosmosClientBuilder;
 import com.azure.cosmos.CosmosContainer;
 import com.azure.cosmos.CosmosDatabase;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBulkOperationResponse;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
 import com.azure.cosmos.models.CosmosItemRequestOptions;
-import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.models.CosmosPatchItemRequestOptions;
+import com.azure.cosmos.models.CosmosPatchOperations;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
 import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.util.CosmosPagedIterable;
 
 import scc.cosmosdb.models.AuctionDAO;
+import scc.cosmosdb.models.AuctionSummaryDAO;
 import scc.cosmosdb.models.BidDAO;
 import scc.cosmosdb.models.LoginDAO;
-import scc.cosmosdb.models.PopularAuctionDAO;
 import scc.cosmosdb.models.QuestionDAO;
 import scc.cosmosdb.models.RecentAuctionDAO;
 import scc.cosmosdb.models.UserDAO;
 import scc.srv.dataclasses.AuctionStatus;
+import scc.srv.dataclasses.Bid;
+import scc.storage.Page;
+import scc.storage.Storage;
 
-public class CosmosDBLayer {
+public class CosmosDBLayer implements Storage {
 	// private static final String CONNECTION_URL =
 	// "https://tiagoduarte25.documents.azure.com:443/";
 	// private static final String DB_KEY =
@@ -61,7 +77,6 @@ public class CosmosDBLayer {
 	private CosmosContainer users;
 	private CosmosContainer auctions;
 	private CosmosContainer questions;
-	private CosmosContainer popularAuctions;
 	private CosmosContainer recentAuctions;
 
 	public CosmosDBLayer(CosmosClient client) {
@@ -77,41 +92,39 @@ public class CosmosDBLayer {
 		questions = db.getContainer("questions");
 		bids = db.getContainer("bids");
 		login = db.getContainer("login");
-		popularAuctions = db.getContainer("popularAuctions");
 		recentAuctions = db.getContainer("recentAuctions");
 
 	}
 
-	public CosmosItemResponse<Object> delUserById(String id) {
+	public void delUserById(String id) {
 		init();
 		PartitionKey key = new PartitionKey(id);
-		return users.deleteItem(id, key, new CosmosItemRequestOptions());
+		users.deleteItem(id, key, new CosmosItemRequestOptions());
 	}
 
-	public CosmosItemResponse<Object> delUser(UserDAO user) {
+	public void delUser(UserDAO user) {
 		init();
-		return users.deleteItem(user, new CosmosItemRequestOptions());
+		users.deleteItem(user, new CosmosItemRequestOptions());
 	}
 
-	public CosmosItemResponse<UserDAO> putUser(UserDAO user) {
+	public UserDAO putUser(UserDAO user) {
 		init();
-		return users.createItem(user);
+		return users.createItem(user).getItem();
 	}
 
-	public CosmosItemResponse<QuestionDAO> putQuestion(QuestionDAO question) {
+	public QuestionDAO putQuestion(QuestionDAO question) {
 		init();
-		return questions.createItem(question);
+		return questions.createItem(question).getItem();
 	}
 
-	public CosmosItemResponse<UserDAO> updateUser(UserDAO user) {
+	public UserDAO updateUser(UserDAO user) {
 		init();
-		return users.upsertItem(user);
+		return users.upsertItem(user).getItem();
 	}
 
-	public CosmosPagedIterable<UserDAO> getUserById(String id) {
+	public Optional<UserDAO> getUserById(String id) {
 		init();
-		return users.queryItems("SELECT * FROM users WHERE users.id=\"" + id + "\"", new CosmosQueryRequestOptions(),
-				UserDAO.class);
+		return readItem(users, id, UserDAO.class);
 	}
 
 	public CosmosPagedIterable<UserDAO> getUsers() {
@@ -119,124 +132,151 @@ public class CosmosDBLayer {
 		return users.queryItems("SELECT * FROM users ", new CosmosQueryRequestOptions(), UserDAO.class);
 	}
 
-	public CosmosPagedIterable<AuctionDAO> getAuctionsByUserId(String id) {
+	/**
+	 * Single-partition query projecting the auction to its status and owner.
+	 */
+	public Optional<AuctionSummaryDAO> getAuctionSummary(String id) {
 		init();
-		return auctions.queryItems("SELECT * FROM auctions WHERE auctions.ownerId=\"" + id + "\"",
-				new CosmosQueryRequestOptions(), AuctionDAO.class);
+		if (id == null)
+			return Optional.empty();
+		Iterator<AuctionSummaryDAO> it = auctions.queryItems(
+				"SELECT auctions.id, auctions.status, auctions.ownerId FROM auctions WHERE auctions.id=\"" + id + "\"",
+				new CosmosQueryRequestOptions().setPartitionKey(new PartitionKey(id)),
+				AuctionSummaryDAO.class).iterator();
+		return it.hasNext() ? Optional.of(it.next()) : Optional.empty();
+	}
+
+	public Page<AuctionDAO> getAuctionsByUserId(String id, String cursor, int limit) {
+		init();
+		return page(auctions.queryItems("SELECT * FROM auctions WHERE auctions.ownerId=\"" + id + "\"",
+				new CosmosQueryRequestOptions(), AuctionDAO.class), cursor, limit);
 	}
 
 	public void close() {
 		client.close();
 	}
 
-	public CosmosItemResponse<AuctionDAO> putAuction(AuctionDAO auction) {
+	public AuctionDAO putAuction(AuctionDAO auction) {
 		init();
-		return auctions.createItem(auction);
+		return auctions.createItem(auction).getItem();
 	}
 
-	public CosmosItemResponse<BidDAO> putBid(BidDAO bid) {
+	public BidDAO putBid(BidDAO bid) {
 		init();
-		return bids.createItem(bid);
+		return bids.createItem(bid).getItem();
 	}
 
-	public CosmosPagedIterable<BidDAO> getBidById(String id) {
+	public Optional<BidDAO> getBidById(String id) {
 		init();
-		return bids.queryItems("SELECT * FROM bids WHERE bids.id=\"" + id + "\"",
-				new CosmosQueryRequestOptions(),
-				BidDAO.class);
+		return readItem(bids, id, BidDAO.class);
 	}
 
-	public CosmosPagedIterable<BidDAO> getBidsByAuctionId(String id) {
+	/**
+	 * Upserts all the bids in a single bulk execution.
+	 * 
+	 * @return ids of the bids that were written
+	 */
+	public Set<String> upsertBids(Collection<BidDAO> bidList) {
 		init();
-		return bids.queryItems("SELECT * FROM bids WHERE bids.auctionId=\"" + id + "\" ORDER BY bids.amount DESC",
-				new CosmosQueryRequestOptions(),
-				BidDAO.class);
+		return bulkUpsert(bids, bidList, BidDAO::getId);
 	}
 
-	public CosmosPagedIterable<QuestionDAO> getQuestionsById(String id) {
+	public Page<BidDAO> getBidsByAuctionId(String id, String cursor, int limit) {
 		init();
-		return questions.queryItems("SELECT * FROM questions WHERE questions.id=\"" + id + "\"",
+		return page(bids.queryItems("SELECT * FROM bids WHERE bids.auctionId=\"" + id + "\" ORDER BY bids.amount DESC",
 				new CosmosQueryRequestOptions(),
-				QuestionDAO.class);
+				BidDAO.class), cursor, limit);
 	}
 
-	public CosmosPagedIterable<QuestionDAO> getQuestionsByAuctionId(String id) {
+	public Optional<QuestionDAO> getQuestionById(String id) {
 		init();
-		return questions.queryItems("SELECT * FROM questions WHERE questions.auctionId=\"" + id + "\"",
-				new CosmosQueryRequestOptions(),
-				QuestionDAO.class);
+		return readItem(questions, id, QuestionDAO.class);
 	}
 
-	public CosmosPagedIterable<AuctionDAO> getAuctionById(String id) {
+	public Page<QuestionDAO> getQuestionsByAuctionId(String id, String cursor, int limit) {
 		init();
-		return auctions.queryItems("SELECT * FROM auctions WHERE auctions.id=\"" + id + "\"",
+		return page(questions.queryItems("SELECT * FROM questions WHERE questions.auctionId=\"" + id + "\"",
 				new CosmosQueryRequestOptions(),
-				AuctionDAO.class);
+				QuestionDAO.class), cursor, limit);
 	}
 
-	public CosmosItemResponse<AuctionDAO> updateAuction(AuctionDAO dbAuction) {
+	public Optional<AuctionDAO> getAuctionById(String id) {
 		init();
-		return auctions.upsertItem(dbAuction);
+		return readItem(auctions, id, AuctionDAO.class);
 	}
 
-	public CosmosItemResponse<QuestionDAO> updateQuestion(QuestionDAO dbQuestion) {
+	public AuctionDAO updateAuction(AuctionDAO dbAuction) {
 		init();
-		return questions.upsertItem(dbQuestion);
+		return auctions.upsertItem(dbAuction).getItem();
 	}
 
-	public CosmosItemResponse<LoginDAO> putLogin(LoginDAO loginDAO) {
+	/**
+	 * Patches only /winnigBid (the property name AuctionDAO serializes to),
+	 * conditioned on the stored bid being lower, so changes made to the rest of
+	 * the document since it was cached are never overwritten.
+	 */
+	public boolean raiseWinningBid(String auctionId, Bid bid) {
 		init();
-		return login.createItem(loginDAO);
+		CosmosPatchItemRequestOptions options = new CosmosPatchItemRequestOptions()
+				.setFilterPredicate("FROM auctions a WHERE NOT IS_DEFINED(a.winnigBid) OR IS_NULL(a.winnigBid)"
+						+ " OR a.winnigBid.amount < " + bid.getAmount());
+		try {
+			auctions.patchItem(auctionId, new PartitionKey(auctionId),
+					CosmosPatchOperations.create().set("/winnigBid", bid), options, AuctionDAO.class);
+			return true;
+		} catch (CosmosException e) {
+			// 404: the auction is gone; 412: it already has a higher bid
+			if (e.getStatusCode() == 404 || e.getStatusCode() == 412)
+				return true;
+			e.printStackTrace();
+			return false;
+		}
 	}
 
-	public CosmosPagedIterable<LoginDAO> getLoginById(String id) {
+	public QuestionDAO updateQuestion(QuestionDAO dbQuestion) {
 		init();
-		return login.queryItems("SELECT * FROM login WHERE login.id=\"" + id + "\"",
-				new CosmosQueryRequestOptions(),
-				LoginDAO.class);
+		return questions.upsertItem(dbQuestion).getItem();
 	}
 
-	public CosmosPagedIterable<AuctionDAO> getOpenAuctions(String id) {
+	public LoginDAO putLogin(LoginDAO loginDAO) {
 		init();
-		return auctions.queryItems(
-				"SELECT * FROM auctions WHERE auctions.ownerId=\"" + id + "\"" + "AND auctions.status=\""
-						+ AuctionStatus.OPEN.getStatus() + "\"",
-				new CosmosQueryRequestOptions(),
-				AuctionDAO.class);
+		return login.createItem(loginDAO).getItem();
 	}
 
-	public CosmosPagedIterable<AuctionDAO> getAllAuctions() {
+	public Optional<LoginDAO> getLoginById(String id) {
 		init();
-		return auctions.queryItems("SELECT * FROM auctions",
-				new CosmosQueryRequestOptions(),
-				AuctionDAO.class);
+		return readItem(login, id, LoginDAO.class);
 	}
 
-	public CosmosPagedIterable<QuestionDAO> getQuestionsByUserId(String id) {
+	public Page<AuctionDAO> getOpenAuctions(String id, String cursor, int limit) {
 		init();
-		return questions.queryItems("SELECT * FROM questions WHERE questions.userId=\"" + id + "\"",
+		return page(auctions.queryItems(
+				"SELECT * FROM auctions WHERE auctions.ownerId=\"" + id + "\"" + "AND auctions.status=\""
+						+ AuctionStatus.OPEN.getStatus() + "\"",
 				new CosmosQueryRequestOptions(),
-				QuestionDAO.class);
+				AuctionDAO.class), cursor, limit);
 	}
 
-	public CosmosPagedIterable<BidDAO> getBidsByUserId(String id) {
+	public CosmosPagedIterable<AuctionDAO> getAllAuctions() {
 		init();
-		return bids.queryItems("SELECT * FROM bids WHERE bids.userId=\"" + id + "\"",
+		return auctions.queryItems("SELECT * FROM auctions",
 				new CosmosQueryRequestOptions(),
-				BidDAO.class);
+				AuctionDAO.class);
 	}
 
-	public CosmosPagedIterable<AuctionDAO> getAuctionUserFollow(String id) {
+	public CosmosPagedIterable<String> getAuctionIdsQuestionedByUser(String id) {
 		init();
-		return auctions.queryItems("SELECT * FROM auctions WHERE auctions.winningBid.userId=\"" + id + "\"",
+		return questions.queryItems(
+				"SELECT DISTINCT VALUE questions.auctionId FROM questions WHERE questions.userId=\"" + id + "\"",
 				new CosmosQueryRequestOptions(),
-				AuctionDAO.class);
+				String.class);
 	}
 
-	public CosmosPagedIterable<PopularAuctionDAO> getPopularAuctions() {
+	public CosmosPagedIterable<String> getAuctionIdsBidByUser(String id) {
 		init();
-		return popularAuctions.queryItems("SELECT * FROM popularAuctions", new CosmosQueryRequestOptions(),
-				PopularAuctionDAO.class);
+		return bids.queryItems("SELECT DISTINCT VALUE bids.auctionId FROM bids WHERE bids.userId=\"" + id + "\"",
+				new CosmosQueryRequestOptions(),
+				String.class);
 	}
 
 	public CosmosPagedIterable<RecentAuctionDAO> getRecentAuctions() {
@@ -245,19 +285,27 @@ public class CosmosDBLayer {
 				RecentAuctionDAO.class);
 	}
 
-	public void closeAuctions() {
+	/**
+	 * Closes every open auction whose end time has passed.
+	 * 
+	 * @return ids of the auctions closed
+	 */
+	public List<String> closeAuctions() {
 		init();
 		CosmosPagedIterable<AuctionDAO> cpi = auctions.queryItems(
 				"SELECT * FROM auctions WHERE auctions.status=\"" + AuctionStatus.OPEN.getStatus() + "\""
 						+ "AND auctions.endTime <= GetCurrentTimestamp()",
 				new CosmosQueryRequestOptions(),
 				AuctionDAO.class);
+		List<String> closed = new ArrayList<>();
 		Iterator<AuctionDAO> it = cpi.iterator();
 		while (it.hasNext()) {
 			AuctionDAO auction = it.next();
 			auction.setStatus(AuctionStatus.CLOSE.getStatus());
 			auctions.upsertItem(auction);
+			closed.add(auction.getId());
 		}
+		return closed;
 	}
 
 	public CosmosPagedIterable<AuctionDAO> getAuctionsAboutToClose() {
@@ -268,4 +316,62 @@ public class CosmosDBLayer {
 				new CosmosQueryRequestOptions(),
 				AuctionDAO.class);
 	}
+
+	/**
+	 * Point read of an item by id. Every container is created partitioned by
+	 * /id (see AzureManagement), so the id doubles as the partition key. A
+	 * missing item (404) is returned as empty.
+	 */
+	private <T> Optional<T> readItem(CosmosContainer container, String id, Class<T> clazz) {
+		if (id == null)
+			return Optional.empty();
+		try {
+			return Optional.ofNullable(container.readItem(id, new PartitionKey(id), clazz).getItem());
+		} catch (CosmosException e) {
+			if (e.getStatusCode() == 404)
+				return Optional.empty();
+			throw e;
+		}
+	}
+
+	/**
+	 * Fetches the single page of the query that starts at the continuation
+	 * token, so only limit items are read and charged. A token Cosmos can not
+	 * parse, rejected either by the SDK or by the service (400), is reported
+	 * as an IllegalArgumentException like any other invalid cursor.
+	 */
+	private <T> Page<T> page(CosmosPagedIterable<T> query, String cursor, int limit) {
+		try {
+			Iterator<FeedResponse<T>> pages = query.iterableByPage(cursor, limit).iterator();
+			if (!pages.hasNext())
+				return new Page<>(new ArrayList<>(), null);
+			FeedResponse<T> page = pages.next();
+			return new Page<>(page.getResults(), page.getContinuationToken());
+		} catch (CosmosException e) {
+			if (cursor != null && e.getStatusCode() == 400)
+				throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+			throw e;
+		} catch (IllegalArgumentException e) {
+			if (cursor != null)
+				throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return ids of the items that were written
+	 */
+	private <T> Set<String> bulkUpsert(CosmosContainer container, Collection<T> items, Function<T, String> idOf) {
+		Set<String> written = new HashSet<>();
+		if (items.isEmpty())
+			return written;
+		List<CosmosItemOperation> operations = new ArrayList<>();
+		for (T item : items)
+			operations.add(CosmosBulkOperations.getUpsertItemOperation(item, new PartitionKey(idOf.apply(item))));
+
+		for (CosmosBulkOperationResponse<Object> response : container.executeBulkOperations(operations))
+			if (response.getException() == null && response.getResponse().isSuccessStatusCode())
+				written.add(response.getOperation().getId());
+		return written;
+	}
 }
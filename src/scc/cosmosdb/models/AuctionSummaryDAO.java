@@ -0,0 +1,50 @@
+package scc.cosmosdb.models;
+
+/**
+ * Projection of an auction to the fields needed for ownership and status
+ * checks, read instead of the whole document.
+ */
+public class AuctionSummaryDAO {
+
+    private String id;
+    private String status;
+    private String ownerId;
+
+    public AuctionSummaryDAO() {
+    }
+
+    public AuctionSummaryDAO(String id, String status, String ownerId) {
+        this.id = id;
+        this.status = status;
+        this.ownerId = ownerId;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    @Override
+    public String toString() {
+        return "AuctionSummaryDAO [id=" + id + ", status=" + status + ", ownerId=" + ownerId + "]";
+    }
+}
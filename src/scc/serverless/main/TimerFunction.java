@@ -1,31 +1,27 @@
 package scc.serverless.main;
 
-import scc.cache.RedisCache;
-import scc.cosmosdb.CosmosDBLayer;
+import scc.cache.Cache;
+import scc.cache.CacheFactory;
+import scc.storage.Storage;
+import scc.storage.StorageFactory;
 import scc.cosmosdb.models.AuctionDAO;
 import scc.srv.dataclasses.Auction;
 
 import java.util.*;
-import redis.clients.jedis.Jedis;
 import com.microsoft.azure.functions.*;
-import redis.clients.jedis.params.SetParams;
 import com.microsoft.azure.functions.annotation.*;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.JsonProcessingException;
 
 /**
  * Azure Functions with Timer Trigger.
  */
 public class TimerFunction {
 
-	private static CosmosDBLayer db_instance;
-	private static Jedis jedis_instance;
-	private ObjectMapper mapper;
+	private static Storage db_instance;
+	private Cache cache;
 
 	public TimerFunction() {
-		db_instance = CosmosDBLayer.getInstance();
-		jedis_instance = RedisCache.getCachePool().getResource();
-		mapper = new ObjectMapper();
+		db_instance = StorageFactory.getInstance();
+		cache = CacheFactory.getInstance();
 	}
 
 	@FunctionName("closeAuction")
@@ -33,7 +29,13 @@ public class TimerFunction {
 			@TimerTrigger(name = "closeAuctionTrigger", schedule = "30 * */2 * * *") String timerInfo,
 			ExecutionContext context) {
 
-		db_instance.closeAuctions();
+		List<String> closed = db_instance.closeAuctions();
+		// Bids are checked against the cached copy, which still says open; the
+		// next bid reloads the closed auction from storage and is rejected
+		for (String id : closed)
+			cache.delete("auction:" + id);
+		cache.zrem(Cache.CLOSING_AUCTIONS, closed.toArray(new String[0]));
+		cache.zremRangeByScore(Cache.CLOSING_AUCTIONS, Double.NEGATIVE_INFINITY, System.currentTimeMillis());
 	}
 
 	@FunctionName("auctionsAboutToClose")
@@ -46,13 +48,8 @@ public class TimerFunction {
 		Iterator<AuctionDAO> it = db_instance.getAuctionsAboutToClose().iterator();
 		while (it.hasNext()) {
 			Auction auction = it.next().toAuction();
-			try {
-				jedis_instance.set("auction:" + auction.getId(), mapper.writeValueAsString(auction),
-						SetParams.setParams().ex(86400).nx());
-			} catch (JsonProcessingException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			cache.setIfAbsent("auction:" + auction.getId(), auction, Cache.NO_EXPIRE);
+			cache.zadd(Cache.CLOSING_AUCTIONS, auction.getEndTime().getTime(), auction.getId());
 		}
 	}
 }
\ No newline at end of file
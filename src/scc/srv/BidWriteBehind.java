@@ -0,0 +1,178 @@
+package scc.srv;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import scc.cache.Cache;
+import scc.cache.CacheFactory;
+import scc.storage.Storage;
+import scc.storage.StorageFactory;
+import scc.cosmosdb.models.BidDAO;
+import scc.srv.dataclasses.Bid;
+import scc.utils.Json;
+
+/**
+ * Write-behind pipeline for accepted bids. Bids are journaled to a Redis
+ * stream by the same script that accepts them and the request is answered
+ * right away; a background worker reads the stream through a consumer group,
+ * writes the bids to storage in bulk and raises the winning bid of each
+ * touched auction once.
+ *
+ * Entries are acknowledged one by one as they are flushed, so a worker that
+ * dies leaves them pending. The worker periodically claims stale entries of
+ * dead consumers and replays its own pending ones. An entry that can not be
+ * parsed, or that keeps failing after {@link #MAX_DELIVERIES} deliveries, is
+ * moved to a dead-letter stream so it does not hold back the bids behind it.
+ */
+public class BidWriteBehind {
+
+    private static final String STREAM = Cache.BID_JOURNAL;
+    private static final String DEAD_LETTERS = "bids:dead-letters";
+    private static final String GROUP = "bid-writers";
+    private static final int BATCH_SIZE = 100;
+    private static final int BLOCK_MILLIS = 1000;
+    private static final long STALE_MILLIS = 60000;
+    private static final int MAX_DELIVERIES = 5;
+
+    private static BidWriteBehind instance;
+
+    public static synchronized BidWriteBehind getInstance() {
+        if (instance != null)
+            return instance;
+        instance = new BidWriteBehind();
+        return instance;
+    }
+
+    private final Cache cache;
+    private final Storage db;
+    private final String consumer;
+    private Thread worker;
+
+    private BidWriteBehind() {
+        cache = CacheFactory.getInstance();
+        db = StorageFactory.getInstance();
+        // Unique per process, so replicas never share each other's pending entries
+        consumer = "backend-" + UUID.randomUUID();
+    }
+
+    public synchronized void start() {
+        if (worker != null)
+            return;
+        worker = new Thread(this::run, "bid-write-behind");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run() {
+        boolean replay = true;
+        long lastClaim = 0;
+        while (true) {
+            try {
+                long now = System.currentTimeMillis();
+                if (replay || now - lastClaim >= STALE_MILLIS) {
+                    cache.createGroup(STREAM, GROUP);
+                    cache.claimStale(STREAM, GROUP, consumer, STALE_MILLIS, BATCH_SIZE);
+                    lastClaim = now;
+                    replay = true;
+                }
+                Map<String, String> batch = cache.readGroup(STREAM, GROUP, consumer, BATCH_SIZE, BLOCK_MILLIS,
+                        replay);
+                if (batch.isEmpty()) {
+                    replay = false;
+                    continue;
+                }
+                if (replay)
+                    dropExhausted(batch);
+                Set<String> done = flush(batch);
+                cache.ack(STREAM, GROUP, done);
+                if (done.size() < batch.size()) {
+                    // Leave the rest pending and retry them after a pause
+                    replay = true;
+                    Thread.sleep(BLOCK_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                e.printStackTrace();
+                replay = true;
+                try {
+                    Thread.sleep(BLOCK_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Dead-letters the entries of a replayed batch that were delivered too many
+     * times, removing them from the batch.
+     */
+    private void dropExhausted(Map<String, String> batch) {
+        Map<String, Long> deliveries = cache.deliveries(STREAM, GROUP, consumer, BATCH_SIZE);
+        batch.entrySet().removeIf(entry -> {
+            if (deliveries.getOrDefault(entry.getKey(), 0L) <= MAX_DELIVERIES)
+                return false;
+            deadLetter(entry.getKey(), entry.getValue());
+            return true;
+        });
+    }
+
+    /**
+     * Writes a batch of journaled bids, coalescing the winning bid updates of
+     * each auction into a single conditional patch.
+     *
+     * @return ids of the entries that were fully written
+     */
+    private Set<String> flush(Map<String, String> batch) {
+        Map<String, Bid> bids = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : batch.entrySet()) {
+            try {
+                bids.put(entry.getKey(), Json.read(entry.getValue(), Bid.class));
+            } catch (JsonProcessingException e) {
+                deadLetter(entry.getKey(), entry.getValue());
+            }
+        }
+
+        List<BidDAO> daos = new ArrayList<>();
+        for (Bid bid : bids.values())
+            daos.add(new BidDAO(bid));
+        Set<String> written = db.upsertBids(daos);
+
+        Map<String, Bid> highest = new HashMap<>();
+        for (Bid bid : bids.values()) {
+            if (!written.contains(bid.getId()))
+                continue;
+            Bid current = highest.get(bid.getAuctionId());
+            if (current == null || current.getAmount() < bid.getAmount())
+                highest.put(bid.getAuctionId(), bid);
+        }
+
+        Set<String> failedAuctions = new HashSet<>();
+        for (Bid bid : highest.values())
+            if (!db.raiseWinningBid(bid.getAuctionId(), bid))
+                failedAuctions.add(bid.getAuctionId());
+
+        Set<String> done = new HashSet<>();
+        for (Map.Entry<String, Bid> entry : bids.entrySet()) {
+            Bid bid = entry.getValue();
+            if (written.contains(bid.getId()) && !failedAuctions.contains(bid.getAuctionId()))
+                done.add(entry.getKey());
+        }
+        return done;
+    }
+
+    private void deadLetter(String id, String payload) {
+        System.err.println("Moving bid journal entry " + id + " to " + DEAD_LETTERS + ": " + payload);
+        cache.append(DEAD_LETTERS, payload);
+        cache.ack(STREAM, GROUP, List.of(id));
+    }
+}
@@ -0,0 +1,56 @@
+package scc.srv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import jakarta.ws.rs.core.StreamingOutput;
+import scc.utils.Json;
+
+/**
+ * Writes the items of an iterator to the response as a JSON array, one
+ * element at a time, so that only the current item (and the page of query
+ * results behind the iterator) is held in memory. At most {@link #MAX_ITEMS}
+ * elements are written.
+ * 
+ * @param <T> the type of the source items
+ */
+public class JsonArrayOutput<T> implements StreamingOutput {
+
+    public static final int MAX_ITEMS = 1000;
+
+    private final Iterator<? extends T> items;
+    private final Function<? super T, ?> mapper;
+    private final int limit;
+
+    public JsonArrayOutput(Iterable<? extends T> items, Function<? super T, ?> mapper) {
+        this(items.iterator(), mapper, MAX_ITEMS);
+    }
+
+    public JsonArrayOutput(Iterator<? extends T> items, Function<? super T, ?> mapper, int limit) {
+        this.items = items;
+        this.mapper = mapper;
+        this.limit = Math.min(limit, MAX_ITEMS);
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try (JsonGenerator generator = Json.mapper().getFactory().createGenerator(output, JsonEncoding.UTF8)) {
+            generator.writeStartArray();
+            int written = 0;
+            while (written < limit && items.hasNext()) {
+                Object item = mapper.apply(items.next());
+                if (item == null)
+                    generator.writeNull();
+                else
+                    Json.writer(item.getClass()).writeValue(generator, item);
+                written++;
+            }
+            generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package scc.srv;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.ws.rs.ext.ContextResolver;
+import jakarta.ws.rs.ext.Provider;
+import scc.utils.Json;
+
+/**
+ * Makes the Jackson provider serialize request and response bodies with the
+ * shared {@link Json} mapper, the same one used for cache payloads.
+ */
+@Provider
+public class JsonMapperResolver implements ContextResolver<ObjectMapper> {
+
+    @Override
+    public ObjectMapper getContext(Class<?> type) {
+        return Json.mapper();
+    }
+}
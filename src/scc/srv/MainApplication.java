@@ -23,11 +23,16 @@ public class MainApplication extends Application {
         resources.add(QuestionsResource.class);
         resources.add(BidResource.class);
 
+        singletons.add(new JsonMapperResolver());
         singletons.add(new MediaResource());
         singletons.add(new UsersResource());
         singletons.add(new AuctionsResource());
         singletons.add(new QuestionsResource());
         singletons.add(new BidResource());
+
+        BidWriteBehind.getInstance().start();
+        MediaStore.getInstance().migrate();
+        MediaIndex.getInstance().start();
     }
 
     @Override
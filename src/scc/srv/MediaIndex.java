@@ -0,0 +1,161 @@
+package scc.srv;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the media ids on disk, so that image ids can be
+ * validated without any I/O.
+ * 
+ * The index is built in the background at startup by walking the shards in
+ * parallel; until then lookups fall back to the disk. Uploads add their ids
+ * directly, and a {@link WatchService} on the media directory picks up files
+ * written or removed by anything else (e.g. another replica sharing the
+ * disk).
+ */
+public class MediaIndex {
+
+    private static MediaIndex instance;
+
+    public static synchronized MediaIndex getInstance() {
+        if (instance != null)
+            return instance;
+        instance = new MediaIndex(MediaStore.getInstance());
+        return instance;
+    }
+
+    private final MediaStore store;
+    private final Set<String> ids = ConcurrentHashMap.newKeySet();
+    private volatile boolean ready;
+    private Thread loader;
+
+    private MediaIndex(MediaStore store) {
+        this.store = store;
+    }
+
+    public synchronized void start() {
+        if (loader != null)
+            return;
+        loader = new Thread(this::run, "media-index");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    public boolean contains(String id) {
+        if (id == null || !MediaStore.isId(id))
+            return false;
+        if (!ready)
+            return store.locate(id) != null;
+        return ids.contains(id);
+    }
+
+    public void add(String id) {
+        if (MediaStore.isId(id))
+            ids.add(id);
+    }
+
+    public void remove(String id) {
+        ids.remove(id);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    // PRIVATE METHODS
+
+    private void run() {
+        try (WatchService watcher = store.getRoot().getFileSystem().newWatchService()) {
+            // Register the watches first so nothing written during the walk is missed
+            watchTree(watcher, store.getRoot());
+            load();
+            ready = true;
+            System.out.println("Media index ready with " + ids.size() + " images");
+            watch(watcher);
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Walks the top-level shards in parallel, plus any files still in the
+     * legacy flat layout.
+     */
+    private void load() throws IOException {
+        List<Path> entries;
+        try (Stream<Path> top = Files.list(store.getRoot())) {
+            entries = top.collect(Collectors.toList());
+        }
+        entries.parallelStream().forEach(entry -> {
+            if (Files.isRegularFile(entry)) {
+                add(entry.getFileName().toString());
+                return;
+            }
+            try (Stream<Path> files = Files.walk(entry)) {
+                files.filter(Files::isRegularFile).forEach(file -> add(file.getFileName().toString()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void watch(WatchService watcher) throws IOException {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    load();
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                String name = child.getFileName().toString();
+                if (event.kind() == ENTRY_CREATE) {
+                    if (Files.isDirectory(child))
+                        watchTree(watcher, child);
+                    else
+                        add(name);
+                } else if (event.kind() == ENTRY_DELETE && store.locate(name) == null) {
+                    // Files moved between layouts by the migration still exist
+                    remove(name);
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /**
+     * Watches dir and its subdirectories, indexing files already in any
+     * directory that appeared after the initial walk.
+     */
+    private void watchTree(WatchService watcher, Path dir) throws IOException {
+        try (Stream<Path> tree = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) tree::iterator) {
+                if (Files.isDirectory(path))
+                    path.register(watcher, ENTRY_CREATE, ENTRY_DELETE);
+                else if (ready)
+                    add(path.getFileName().toString());
+            }
+        }
+    }
+}
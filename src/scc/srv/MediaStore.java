@@ -0,0 +1,229 @@
+package scc.srv;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Content-addressed layout of the media directory. An image with id
+ * "ABCDEF..." lives at "AB/CD/ABCDEF...", which keeps every directory small
+ * even with millions of images.
+ * 
+ * Images written before sharding sit flat in the root; {@link #migrate()}
+ * moves them into place in the background, and {@link #locate(String)} and
+ * {@link #list(String, int)} still find them there until it has.
+ * 
+ * The directory comes from the "azure-managed-disk" environment variable,
+ * falling back to a directory under java.io.tmpdir when it is not set (e.g.
+ * when running offline with the in-memory storage and cache).
+ */
+public class MediaStore {
+
+    public static final String TMP_PREFIX = ".upload-";
+
+    private static final String FALLBACK_DIR = "scc-media";
+
+    private static MediaStore instance;
+
+    public static synchronized MediaStore getInstance() {
+        if (instance != null)
+            return instance;
+        String configured = System.getenv("azure-managed-disk");
+        Path root;
+        if (configured != null) {
+            root = Paths.get(configured);
+        } else {
+            root = Paths.get(System.getProperty("java.io.tmpdir"), FALLBACK_DIR);
+            System.err.println("azure-managed-disk is not set, storing media in " + root);
+        }
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new IllegalStateException("Media directory " + root + " is not usable", e);
+        }
+        instance = new MediaStore(root);
+        return instance;
+    }
+
+    private final Path root;
+    private Thread migration;
+    private volatile boolean migrated;
+
+    private MediaStore(Path root) {
+        this.root = root;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Where the image with the given id is (or is to be) stored.
+     */
+    public Path resolve(String id) {
+        if (id.length() < 4)
+            return root.resolve(id);
+        return root.resolve(id.substring(0, 2)).resolve(id.substring(2, 4)).resolve(id);
+    }
+
+    /**
+     * Path of an existing image, looking in the legacy flat layout as well, or
+     * null if there is no image with that id.
+     */
+    public Path locate(String id) {
+        if (!isId(id))
+            return null;
+        Path path = resolve(id);
+        if (Files.isRegularFile(path))
+            return path;
+        Path legacy = root.resolve(id);
+        return Files.isRegularFile(legacy) ? legacy : null;
+    }
+
+    /**
+     * Publishes a fully written temporary file under the given id. Returns
+     * false if an image with that id already existed, in which case the
+     * temporary file is left to the caller.
+     */
+    public boolean publish(Path tmp, String id) throws IOException {
+        if (locate(id) != null)
+            return false;
+        Path target = resolve(id);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // Same contents uploaded concurrently, keep the first copy
+            return false;
+        }
+    }
+
+    /**
+     * Up to limit ids in ascending order, starting after the given cursor (an
+     * id previously returned, or null for the first page). Only one leaf
+     * directory is held in memory at a time, plus the flat root until the
+     * migration has finished.
+     */
+    public List<String> list(String cursor, int limit) throws IOException {
+        if (migrated)
+            return listSharded(cursor, limit);
+
+        // Ids sort the same way in both layouts, so merge the flat ones in. The
+        // root is read first: an image moved meanwhile shows up in its shard.
+        TreeSet<String> merged = new TreeSet<>();
+        for (String id : names(root))
+            if (cursor == null || id.compareTo(cursor) > 0)
+                merged.add(id);
+        merged.addAll(listSharded(cursor, limit));
+        List<String> page = new ArrayList<>();
+        for (String id : merged) {
+            if (page.size() >= limit)
+                break;
+            page.add(id);
+        }
+        return page;
+    }
+
+    /**
+     * Starts moving images out of the legacy flat layout into their shards.
+     */
+    public synchronized void migrate() {
+        if (migration != null)
+            return;
+        migration = new Thread(this::runMigration, "media-migration");
+        migration.setDaemon(true);
+        migration.start();
+    }
+
+    public static boolean isId(String name) {
+        return name.length() >= 4 && !name.startsWith(TMP_PREFIX) && name.indexOf('/') < 0
+                && name.indexOf('\\') < 0 && !name.startsWith(".");
+    }
+
+    // PRIVATE METHODS
+
+    private List<String> listSharded(String cursor, int limit) throws IOException {
+        List<String> ids = new ArrayList<>();
+        String first = cursor != null && cursor.length() >= 4 ? cursor.substring(0, 2) : null;
+        String second = first != null ? cursor.substring(2, 4) : null;
+
+        for (String outer : shards(root, first)) {
+            boolean resume = outer.equals(first);
+            for (String inner : shards(root.resolve(outer), resume ? second : null)) {
+                boolean resumeLeaf = resume && inner.equals(second);
+                for (String id : names(root.resolve(outer).resolve(inner))) {
+                    if (resumeLeaf && id.compareTo(cursor) <= 0)
+                        continue;
+                    ids.add(id);
+                    if (ids.size() >= limit)
+                        return ids;
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void runMigration() {
+        int moved = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, Files::isRegularFile)) {
+            for (Path legacy : stream) {
+                String id = legacy.getFileName().toString();
+                if (!isId(id))
+                    continue;
+                Path target = resolve(id);
+                Files.createDirectories(target.getParent());
+                if (Files.exists(target))
+                    Files.delete(legacy);
+                else
+                    Files.move(legacy, target, StandardCopyOption.ATOMIC_MOVE);
+                moved++;
+            }
+            migrated = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (moved > 0)
+            System.out.println("Migrated " + moved + " images to the sharded media layout");
+    }
+
+    /**
+     * Sorted names of the two-character shard directories under dir, starting
+     * at from (inclusive) when given.
+     */
+    private static List<String> shards(Path dir, String from) throws IOException {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(dir))
+            return names;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path shard : stream) {
+                String name = shard.getFileName().toString();
+                if (name.length() == 2 && (from == null || name.compareTo(from) >= 0))
+                    names.add(name);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static List<String> names(Path leaf) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(leaf, Files::isRegularFile)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (isId(name))
+                    names.add(name);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+}
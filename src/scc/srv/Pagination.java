@@ -0,0 +1,55 @@
+package scc.srv;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.core.Response;
+import scc.storage.Page;
+
+/**
+ * Conventions shared by the paginated list endpoints: a "limit" query
+ * parameter (at most {@link JsonArrayOutput#MAX_ITEMS}) and an opaque
+ * "cursor" parameter, whose next value is returned in the
+ * {@value #NEXT_CURSOR} header while there are more items.
+ */
+public class Pagination {
+
+    public static final String NEXT_CURSOR = "X-Next-Cursor";
+    public static final String DEFAULT_LIMIT = "100";
+
+    /**
+     * The page size to request for the given limit parameter.
+     */
+    public static int limit(int requested) {
+        if (requested <= 0)
+            throw new BadRequestException("limit must be positive");
+        return Math.min(requested, JsonArrayOutput.MAX_ITEMS);
+    }
+
+    /**
+     * Fetches a page from storage and streams it like
+     * {@link #response(Page, Function)}. Storage rejects a malformed cursor
+     * with an IllegalArgumentException, which is answered with 400.
+     */
+    public static <T> Response response(Supplier<Page<T>> query, Function<? super T, ?> mapper) {
+        Page<T> page;
+        try {
+            page = query.get();
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+        return response(page, mapper);
+    }
+
+    /**
+     * Streams the items of the page, converted by mapper, with the cursor of
+     * the next page if there is one.
+     */
+    public static <T> Response response(Page<T> page, Function<? super T, ?> mapper) {
+        Response.ResponseBuilder response = Response.ok(new JsonArrayOutput<>(page.getItems(), mapper));
+        if (page.getContinuation() != null)
+            response.header(NEXT_CURSOR, page.getContinuation());
+        return response.build();
+    }
+}
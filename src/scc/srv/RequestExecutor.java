@@ -0,0 +1,86 @@
+package scc.srv;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.container.AsyncResponse;
+
+/**
+ * Bounded executor used by the asynchronous endpoints. Work submitted through
+ * {@link #submit(AsyncResponse, Callable)} runs off the servlet thread and the
+ * result (or exception) resumes the suspended response. When the queue is
+ * full the request is rejected with 503 instead of piling up.
+ */
+public class RequestExecutor {
+
+    private static final int POOL_SIZE = 64;
+    private static final int QUEUE_SIZE = 1024;
+    private static final long RESPONSE_TIMEOUT = 30;
+
+    private static final int FAN_OUT_POOL_SIZE = 32;
+
+    private static ExecutorService instance;
+    private static ExecutorService fanOut;
+
+    public static synchronized ExecutorService getInstance() {
+        if (instance != null)
+            return instance;
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "request-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        instance = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), factory);
+        return instance;
+    }
+
+    /**
+     * Separate bounded pool for the sub-queries a request issues in parallel.
+     * It is not the request pool, so a request waiting on its sub-queries can
+     * never starve them of threads; when it is saturated the sub-query simply
+     * runs on the calling thread.
+     */
+    public static synchronized ExecutorService getFanOut() {
+        if (fanOut != null)
+            return fanOut;
+
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "fan-out-worker-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        fanOut = new ThreadPoolExecutor(FAN_OUT_POOL_SIZE, FAN_OUT_POOL_SIZE, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+        return fanOut;
+    }
+
+    /**
+     * Runs the task on the bounded pool and resumes the response with its
+     * result, or with the exception it threw.
+     */
+    public static void submit(AsyncResponse response, Callable<?> task) {
+        response.setTimeout(RESPONSE_TIMEOUT, TimeUnit.SECONDS);
+        try {
+            getInstance().execute(() -> {
+                try {
+                    response.resume(task.call());
+                } catch (Throwable e) {
+                    response.resume(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.resume(new ServiceUnavailableException("Server busy, try again later"));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package scc.srv.dataclasses;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * An auction a user follows, with every reason they follow it. Holding the
+ * winning bid is not a separate reason, since the winner has always bid.
+ */
+public class FollowedAuction {
+
+    public enum Reason {
+        BID, QUESTION
+    }
+
+    @JsonProperty("auctionId")
+    private String auctionId;
+    @JsonProperty("reasons")
+    private List<Reason> reasons;
+
+    public FollowedAuction() {
+        super();
+    }
+
+    public FollowedAuction(String auctionId) {
+        this.auctionId = auctionId;
+        this.reasons = new ArrayList<>();
+    }
+
+    public String getAuctionId() {
+        return auctionId;
+    }
+
+    public List<Reason> getReasons() {
+        return reasons;
+    }
+
+    public void addReason(Reason reason) {
+        if (!reasons.contains(reason))
+            reasons.add(reason);
+    }
+
+    @Override
+    public String toString() {
+        return "FollowedAuction [auctionId=" + auctionId + ", reasons=" + reasons + "]";
+    }
+}
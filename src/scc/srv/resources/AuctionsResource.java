@@ -1,27 +1,29 @@
 package scc.srv.resources;
 
-import scc.cache.RedisCache;
+import scc.cache.Cache;
+import scc.cache.CacheFactory;
+import scc.cache.PopularityIndex;
 import scc.srv.dataclasses.Bid;
 import scc.srv.MainApplication;
-import scc.cosmosdb.CosmosDBLayer;
+import scc.srv.RequestExecutor;
+import scc.storage.Storage;
+import scc.storage.StorageFactory;
 import scc.srv.dataclasses.Auction;
 import scc.cosmosdb.models.AuctionDAO;
+import scc.cosmosdb.models.AuctionSummaryDAO;
 import scc.srv.dataclasses.AuctionStatus;
 import scc.cosmosdb.models.RecentAuctionDAO;
-import scc.cosmosdb.models.PopularAuctionDAO;
+import scc.srv.dataclasses.PopularAuction;
+import scc.utils.Validator;
 
-import java.util.Set;
 import java.util.List;
 import jakarta.ws.rs.*;
 import java.util.Iterator;
 import java.util.ArrayList;
-import java.lang.reflect.Field;
 import jakarta.ws.rs.core.Cookie;
-import redis.clients.jedis.Jedis;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.container.AsyncResponse;
 import jakarta.ws.rs.core.MediaType;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Resource for managing auction.
@@ -31,29 +33,33 @@ public class AuctionsResource {
 
     private MediaResource media;
     private UsersResource users;
-    private static Jedis jedis_instance;
-    private static CosmosDBLayer db_instance;
-    private ObjectMapper mapper;
+    private Cache cache;
+    private PopularityIndex popularity;
+    private static Storage db_instance;
 
+    private static final int MAX_LIMIT = 100;
+    private static final int DEFAULT_REDIS_EXPIRE = 600;
+    private static final long ABOUT_TO_CLOSE_WINDOW = 86400000;
     private static final String AUCTION_NULL = "Null auction exception";
     private static final String USER_NOT_EXIST = "User does not exist";
     private static final String IMG_NOT_EXIST = "Image does not exist";
     private static final String INVALID_STATUS = "Invalid auction status";
     private static final String NULL_FIELD_EXCEPTION = "Null %s exception";
+    private static final Validator<Auction> VALIDATOR = Validator.of(Auction.class, "description", "winningBid");
     private static final String AUCTION_NOT_EXIST = "Auction does not exist";
     private static final String AUCTION_ALREADY_EXISTS = "AuctionId already exists";
     private static final String NEGATIVE_MINPRICE = "minPrice can not be negative or zero";
 
     public AuctionsResource() {
-        db_instance = CosmosDBLayer.getInstance();
-        jedis_instance = RedisCache.getCachePool().getResource();
+        db_instance = StorageFactory.getInstance();
+        cache = CacheFactory.getInstance();
+        popularity = PopularityIndex.getInstance();
         for (Object resource : MainApplication.getSingletonsSet()) {
             if (resource instanceof MediaResource)
                 media = (MediaResource) resource;
             if (resource instanceof UsersResource)
                 users = (UsersResource) resource;
         }
-        mapper = new ObjectMapper();
     }
 
     /**
@@ -80,8 +86,7 @@ public class AuctionsResource {
         if (result != null)
             return null;
 
-        String res = jedis_instance.get("auction:" + auction.getId());
-        if (res != null)
+        if (cache.exists("auction:" + auction.getId()))
             return null;
 
         // Status special verification when creating an auction
@@ -90,6 +95,7 @@ public class AuctionsResource {
 
         AuctionDAO dbAuction = new AuctionDAO(auction);
         db_instance.putAuction(dbAuction);
+        indexClosingTime(auction);
         return auction;
     }
 
@@ -131,46 +137,44 @@ public class AuctionsResource {
             return null;
 
         // Checks if auctionId exists
-        if (!db_instance.getAuctionById(auction.getId()).iterator().hasNext())
+        if (db_instance.getAuctionById(auction.getId()).isEmpty())
             return null;
         AuctionDAO dbAuction = new AuctionDAO(auction);
         db_instance.updateAuction(dbAuction);
+        cache.set("auction:" + auction.getId(), auction, cacheExpire(auction));
+        indexClosingTime(auction);
         return auction;
     }
 
     @GET
     @Path("/{id}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Auction getAuction(@PathParam("id") String id) throws JsonMappingException, JsonProcessingException {
-        String res = jedis_instance.get("auction:" + id);
-        if (res != null)
-            return mapper.readValue(res, Auction.class);
-        Iterator<AuctionDAO> it = db_instance.getAuctionById(id).iterator();
-        if (it.hasNext())
-            return ((((AuctionDAO) it.next()).toAuction()));
-        return null;
+    public void getAuction(@PathParam("id") String id, @Suspended AsyncResponse response) {
+        RequestExecutor.submit(response, () -> readAuction(id));
     }
 
     /**
      * The most popular auctions are those which have more bids submitted to it
      * The auctions are ordered by number of bids submitted
      * 
-     * @param id
+     * @param window all, hour or day
+     * @param limit  maximum number of auctions returned
      * @return
      */
     @Path("/any/popular")
     @GET
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> popularAuctionsList() {
-
-        List<String> list = new ArrayList<>();
+    public List<PopularAuction> popularAuctionsList(@QueryParam("window") @DefaultValue("all") String window,
+            @QueryParam("limit") @DefaultValue("10") int limit) {
 
-        Iterator<PopularAuctionDAO> it = db_instance.getPopularAuctions().iterator();
-        if (it.hasNext())
-            list.add(((PopularAuctionDAO) it.next()).toPopularAuction().toString());
-
-        return list;
+        PopularityIndex.Window popularityWindow;
+        try {
+            popularityWindow = PopularityIndex.Window.of(window);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+        return popularity.top(popularityWindow, Math.min(limit, MAX_LIMIT));
     }
 
     @Path("/any/recent")
@@ -188,23 +192,47 @@ public class AuctionsResource {
         return list;
     }
 
+    /**
+     * Ids of the open auctions ending in the next 24 hours, soonest first.
+     */
     @Path("/any/aboutclose")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> auctionsAboutToClose() {
+    public List<String> auctionsAboutToClose(@QueryParam("offset") @DefaultValue("0") int offset,
+            @QueryParam("limit") @DefaultValue("20") int limit) {
 
-        List<String> list = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        return cache.zrangeByScore(Cache.CLOSING_AUCTIONS, now, now + ABOUT_TO_CLOSE_WINDOW,
+                Math.max(offset, 0), Math.min(Math.max(limit, 0), MAX_LIMIT));
+    }
 
-        Set<String> auctions = jedis_instance.keys("auction:*");
+    /**
+     * Open auctions stay cached until they close, since the cached copy holds
+     * winning bids that may not have been written to storage yet.
+     */
+    static int cacheExpire(Auction auction) {
+        return AuctionStatus.OPEN.getStatus().equals(auction.getStatus()) ? Cache.NO_EXPIRE
+                : DEFAULT_REDIS_EXPIRE;
+    }
 
-        Iterator<String> it = auctions.iterator();
-        while (it.hasNext())
-            list.add(it.next());
+    // PRIVATE METHODS
 
-        return list;
+    private Auction readAuction(String id) {
+        Auction auction = cache.get("auction:" + id, Auction.class);
+        if (auction != null)
+            return auction;
+        return db_instance.getAuctionById(id).map(AuctionDAO::toAuction).orElse(null);
     }
 
-    // PRIVATE METHODS
+    /**
+     * Keeps the auction in the closing index while it is open.
+     */
+    private void indexClosingTime(Auction auction) {
+        if (AuctionStatus.OPEN.getStatus().equals(auction.getStatus()) && auction.getEndTime() != null)
+            cache.zadd(Cache.CLOSING_AUCTIONS, auction.getEndTime().getTime(), auction.getId());
+        else
+            cache.zrem(Cache.CLOSING_AUCTIONS, auction.getId());
+    }
 
     private boolean isValidStatus(String status) {
         return ((status.equals(AuctionStatus.OPEN.getStatus()) ||
@@ -222,24 +250,15 @@ public class AuctionsResource {
     }
 
     public Bid getAuctionWinningBid(String id) {
-        Iterator<AuctionDAO> it = db_instance.getAuctionById(id).iterator();
-        if (it.hasNext())
-            return ((((AuctionDAO) it.next()).toAuction().getWinningBid()));
-        return null;
+        return db_instance.getAuctionById(id).map(AuctionDAO::getWinnigBid).orElse(null);
     }
 
     private String getStatusAuction(String id) {
-        Iterator<AuctionDAO> it = db_instance.getAuctionById(id).iterator();
-        if (it.hasNext())
-            return ((((AuctionDAO) it.next()).toAuction().getStatus()));
-        return null;
+        return db_instance.getAuctionSummary(id).map(AuctionSummaryDAO::getStatus).orElse(null);
     }
 
     public Auction getAuctionById(String id) {
-        Iterator<AuctionDAO> it = db_instance.getAuctionById(id).iterator();
-        if (it.hasNext())
-            return ((((AuctionDAO) it.next()).toAuction()));
-        return null;
+        return db_instance.getAuctionById(id).map(AuctionDAO::toAuction).orElse(null);
     }
 
     private String checkAuction(Auction auction) throws IllegalArgumentException, IllegalAccessException {
@@ -248,16 +267,14 @@ public class AuctionsResource {
             return AUCTION_NULL;
 
         // verify that fields are different from null
-        for (Field f : auction.getClass().getDeclaredFields()) {
-            f.setAccessible(true);
-            if (f.get(auction) == null && !f.getName().matches("description|winningBid"))
-                return String.format(NULL_FIELD_EXCEPTION, f.getName());
-        }
+        List<String> missing = VALIDATOR.missing(auction);
+        if (!missing.isEmpty())
+            return String.format(NULL_FIELD_EXCEPTION, String.join(", ", missing));
 
         if (auction.getMinPrice() <= 0)
             return NEGATIVE_MINPRICE;
 
-        if (!db_instance.getUserById(auction.getOwnerId()).iterator().hasNext())
+        if (db_instance.getUserById(auction.getOwnerId()).isEmpty())
             return USER_NOT_EXIST;
 
         // verify if imgId exists in the database
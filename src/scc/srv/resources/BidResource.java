@@ -1,24 +1,29 @@
 package scc.srv.resources;
 
-import scc.cache.RedisCache;
+import scc.cache.Cache;
+import scc.cache.CacheFactory;
+import scc.cache.FollowingIndex;
+import scc.cache.PopularityIndex;
+import scc.srv.dataclasses.Auction;
 import scc.srv.dataclasses.Bid;
+import scc.srv.dataclasses.FollowedAuction.Reason;
 import scc.srv.MainApplication;
-import scc.cosmosdb.CosmosDBLayer;
-import scc.srv.dataclasses.Auction;
+import scc.srv.Pagination;
+import scc.srv.RequestExecutor;
+import scc.storage.Page;
+import scc.storage.Storage;
+import scc.storage.StorageFactory;
 import scc.cosmosdb.models.AuctionDAO;
 import scc.cosmosdb.models.BidDAO;
-import scc.srv.dataclasses.AuctionStatus;
+import scc.utils.Validator;
 
 import java.util.List;
 import jakarta.ws.rs.*;
-import java.util.Iterator;
-import java.util.ArrayList;
-import java.lang.reflect.Field;
 import jakarta.ws.rs.core.Cookie;
-import redis.clients.jedis.Jedis;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.container.AsyncResponse;
 import jakarta.ws.rs.core.MediaType;
-import com.azure.cosmos.util.CosmosPagedIterable;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.core.Response;
 
 /**
  * Resource for managing bids.
@@ -28,6 +33,7 @@ public class BidResource {
 
     private static final String BID_NULL = "Null bid exception";
     private static final String NULL_FIELD_EXCEPTION = "Null %s exception";
+    private static final Validator<Bid> VALIDATOR = Validator.of(Bid.class);
     private static final String AUCTION_NOT_EXISTS = "Auction does not exist";
     private static final String BID_ALREADY_EXISTS = "AuctionId already exists";
     private static final String AUCTION_NOT_OPEN = "Can only bid in an open auction";
@@ -38,14 +44,16 @@ public class BidResource {
     private static final int DEFAULT_REDIS_EXPIRE = 600;
 
     private UsersResource users;
-    private ObjectMapper mapper;
-    private static Jedis jedis_instance;
-    private static CosmosDBLayer db_instance;
+    private Cache cache;
+    private PopularityIndex popularity;
+    private FollowingIndex following;
+    private static Storage db_instance;
 
     public BidResource() {
-        db_instance = CosmosDBLayer.getInstance();
-        jedis_instance = RedisCache.getCachePool().getResource();
-        mapper = new ObjectMapper();
+        db_instance = StorageFactory.getInstance();
+        cache = CacheFactory.getInstance();
+        popularity = PopularityIndex.getInstance();
+        following = FollowingIndex.getInstance();
         for (Object resource : MainApplication.getSingletonsSet()) {
             if (resource instanceof UsersResource)
                 users = (UsersResource) resource;
@@ -61,51 +69,8 @@ public class BidResource {
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Bid create(@CookieParam("scc:session") Cookie session, Bid bid)
-            throws Exception {
-
-        // users.checkCookieUser(session, bid.getUserId());
-        checkBid(bid);
-
-        String res = jedis_instance.get("auction:" + bid.getAuctionId());
-        Auction auction;
-        if (res == null) {
-            AuctionDAO newAuction = getAuctionInDB(bid.getAuctionId());
-
-            if (newAuction == null)
-                throw new Exception("Without Auction");
-
-            auction = newAuction.toAuction();
-        } else
-            auction = mapper.readValue(res, Auction.class); // Auction
-
-        if (auction.getWinningBid() != null && auction.getWinningBid().getAmount() >= bid.getAmount())
-            throw new Exception("Invalid Amount");
-
-        if (auction.getOwnerId().equals(bid.getUserId()))
-            throw new Exception("Same user");
-
-        if (!auction.getStatus().equals(AuctionStatus.OPEN.getStatus()))
-            throw new Exception("Auction Closed");
-
-        if (bid.getAmount() < auction.getMinPrice())
-            throw new Exception("Invalid Amount 2");
-
-        // Updates the auction in the database
-        auction.setWinningBid(bid);
-        AuctionDAO dbAuction = new AuctionDAO(auction);
-        db_instance.updateAuction(dbAuction);
-
-        // bid value has to be higher than current winning bid for that auction
-        jedis_instance.setex("auction:" + auction.getId(), DEFAULT_REDIS_EXPIRE,
-                mapper.writeValueAsString(auction));
-        jedis_instance.setex("bid:" + bid.getId(), DEFAULT_REDIS_EXPIRE, mapper.writeValueAsString(bid));
-
-        // Create the bid to store in the database
-        BidDAO dbbid = new BidDAO(bid);
-        db_instance.putBid(dbbid);
-        return bid;
-
+    public void create(@CookieParam("scc:session") Cookie session, Bid bid, @Suspended AsyncResponse response) {
+        RequestExecutor.submit(response, () -> placeBid(session, bid));
     }
 
     /**
@@ -114,33 +79,69 @@ public class BidResource {
     @Path("/{id}/bid")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> list(@PathParam("id") String id) {
+    public void list(@PathParam("id") String id, @QueryParam("cursor") String cursor,
+            @QueryParam("limit") @DefaultValue(Pagination.DEFAULT_LIMIT) int limit,
+            @Suspended AsyncResponse response) {
+        RequestExecutor.submit(response, () -> listBids(id, cursor, Pagination.limit(limit)));
+    }
 
-        List<String> bids = new ArrayList<>();
+    // PRIVATE METHODS
 
-        // this does not make sense we're only doing this for the moment
-        if (getAuctionInDB(id) == null)
-            return bids;
+    private Bid placeBid(Cookie session, Bid bid) throws Exception {
 
-        Iterator<BidDAO> bidsIt = db_instance.getBidsByAuctionId(id).iterator();
+        // users.checkCookieUser(session, bid.getUserId());
+        checkBid(bid);
+
+        String key = "auction:" + bid.getAuctionId();
+        if (!cache.exists(key)) {
+            AuctionDAO dbAuction = getAuctionInDB(bid.getAuctionId());
+            if (dbAuction == null)
+                throw new Exception(AUCTION_NOT_EXISTS);
+            // Once cached, an open auction is the only place accepted bids are
+            // checked against until the journal is flushed, so it must not
+            // expire and be reloaded from storage with a lower winning bid
+            Auction auction = dbAuction.toAuction();
+            cache.setIfAbsent(key, auction, AuctionsResource.cacheExpire(auction));
+        }
 
-        while (bidsIt.hasNext())
-            bids.add(bidsIt.next().toBid().toString());
+        // Checks, installs and journals the winning bid atomically in the cache
+        switch (cache.placeBid(key, bid)) {
+            case AUCTION_MISSING:
+                throw new Exception(AUCTION_NOT_EXISTS);
+            case AUCTION_NOT_OPEN:
+                throw new Exception(AUCTION_NOT_OPEN);
+            case SAME_OWNER:
+                throw new Exception(SAME_OWNER);
+            case BELOW_MIN_PRICE:
+                throw new Exception(LOWER_THAN_MIN_VALUE);
+            case NOT_HIGHER:
+                throw new Exception(LOWER_BIDVALUE);
+            default:
+                break;
+        }
 
-        return bids;
+        // The auction and the bid are written to the database in the background
+        cache.set("bid:" + bid.getId(), bid, DEFAULT_REDIS_EXPIRE);
+        popularity.recordBid(bid.getAuctionId());
+        following.record(bid.getUserId(), bid.getAuctionId(), Reason.BID);
+        return bid;
     }
 
-    // PRIVATE METHODS
+    private Response listBids(String id, String cursor, int limit) {
+
+        // this does not make sense we're only doing this for the moment
+        if (getAuctionInDB(id) == null)
+            return Pagination.response(new Page<>(List.<BidDAO>of(), null), BidDAO::toBid);
+
+        return Pagination.response(() -> db_instance.getBidsByAuctionId(id, cursor, limit), BidDAO::toBid);
+    }
 
     /*
      * Returns auctions from DB with auctionId or null
      * 
      */
     private AuctionDAO getAuctionInDB(String auctionId) {
-        CosmosPagedIterable<AuctionDAO> auctionIt = db_instance.getAuctionById(auctionId);
-        if (auctionIt.iterator().hasNext())
-            return auctionIt.iterator().next();
-        return null;
+        return db_instance.getAuctionById(auctionId).orElse(null);
     }
 
     /**
@@ -156,18 +157,15 @@ public class BidResource {
         if (bid == null)
             throw new Exception("Bid null");
 
-        String res = jedis_instance.get("bid:" + bid.getId());
+        String res = cache.get("bid:" + bid.getId());
         if (res != null)
             throw new Exception(res + "WTF");
-        if (db_instance.getBidById(bid.getId()).iterator().hasNext())
+        if (db_instance.getBidById(bid.getId()).isPresent())
             throw new Exception(res + "BLABLABLA");
         // verify that fields are different from null
-        for (Field f : bid.getClass().getDeclaredFields()) {
-            f.setAccessible(true);
-            if (f.get(bid) == null)
-                throw new Exception(String.format(NULL_FIELD_EXCEPTION, f.getName()));
-            ;
-        }
+        List<String> missing = VALIDATOR.missing(bid);
+        if (!missing.isEmpty())
+            throw new Exception(String.format(NULL_FIELD_EXCEPTION, String.join(", ", missing)));
 
         if (bid.getAmount() <= 0)
             throw new Exception(NEGATIVE_VALUE);
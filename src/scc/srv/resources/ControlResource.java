@@ -1,5 +1,9 @@
 package scc.srv.resources;
 
+import java.util.Map;
+
+import scc.cache.ImageCache;
+
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
@@ -22,4 +26,14 @@ public class ControlResource
 	public String hello() {
 		return "v: 0001";
 	}
+
+	/**
+	 * Hit ratio, occupancy and eviction counters of the in-memory image cache.
+	 */
+	@Path("/media-cache")
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> mediaCache() {
+		return ImageCache.getInstance().stats();
+	}
 }
@@ -1,16 +1,32 @@
 package scc.srv.resources;
 
+import scc.cache.ImageCache;
+import scc.srv.MediaIndex;
+import scc.srv.MediaStore;
+import scc.srv.Pagination;
+import scc.storage.Page;
 import scc.utils.Hash;
 
 import jakarta.ws.rs.*;
 import java.util.List;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Response.Status;
+import jakarta.ws.rs.core.StreamingOutput;
 
 /**
  * Resource for managing media files, such as images.
@@ -20,93 +36,229 @@ public class MediaResource {
 
     private static final String ERROR_MSG = "Use: java scc.utils.UploadToStorage filename";
 
+    private static final String RANGE = "Range";
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final int ONE_YEAR = 31536000;
+    private static final CacheControl IMMUTABLE = immutable();
+
+    private ImageCache images;
+    private MediaStore store;
+    private MediaIndex index;
+
     public MediaResource() {
+        images = ImageCache.getInstance();
+        store = MediaStore.getInstance();
+        index = MediaIndex.getInstance();
     }
 
     /**
      * Post a new image.The id of the image is its hash.
      * 
+     * The body is streamed into a temporary file while it is hashed, then
+     * renamed to its id. If an image with the same contents already exists
+     * the temporary file is simply dropped.
+     * 
      * @throws IOException
-     * @throws FileNotFoundException
      */
     @POST
     @Path("/")
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
     @Produces(MediaType.APPLICATION_JSON)
-    public String upload(byte[] contents) throws FileNotFoundException, IOException {
+    public String upload(InputStream contents) throws IOException {
 
         if (contents == null)
             return ERROR_MSG;
 
-        String filename = Hash.of(contents);
-        String path = System.getenv("azure-managed-disk") + "/" + filename;
-        try (FileOutputStream stream = new FileOutputStream(path)) {
-            stream.write(contents);
-        }
+        java.nio.file.Path tmp = Files.createTempFile(store.getRoot(), MediaStore.TMP_PREFIX, ".tmp");
+        try {
+            MessageDigest digest = Hash.newDigest();
+            try (InputStream in = new DigestInputStream(contents, digest)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
 
-        return filename;
+            String filename = Hash.of(digest);
+            store.publish(tmp, filename);
+            index.add(filename);
+            return filename;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
     }
 
     /**
      * Return the contents of an image. Throw an appropriate error message if
-     * id does not exist.
+     * id does not exist. Popular images are served from the off-heap
+     * {@link ImageCache}; the rest are streamed from disk to the socket with
+     * {@link FileChannel#transferTo}, so they are never copied onto the heap,
+     * and offered to the cache once they have been sent.
      * 
-     * @throws IOException
+     * Ids are content hashes, so the id doubles as a strong ETag and the
+     * response can be cached forever. A matching If-None-Match is answered
+     * with 304 once the id is found in the {@link MediaIndex}, without reading
+     * the file, and a single byte Range is served as 206 Partial Content.
      */
     @GET
     @Path("/{id}")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public byte[] download(@PathParam("id") String id) throws IOException {
-        byte[] bytes = null;
-        String path = System.getenv("azure-managed-disk") + "/"+ id;
-        try (FileInputStream stream = new FileInputStream(path)) {
-            bytes = stream.readAllBytes();
+    public Response download(@PathParam("id") String id, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+            @HeaderParam(RANGE) String range) throws IOException {
+        EntityTag etag = new EntityTag(id);
+        if (ifNoneMatch != null && !index.contains(id))
+            throw new NotFoundException("Image " + id + " does not exist");
+        if (matches(ifNoneMatch, id))
+            return Response.notModified(etag).cacheControl(IMMUTABLE).build();
+
+        ImageCache.Lease cached = images.get(id);
+        java.nio.file.Path path = null;
+        long length;
+        if (cached != null) {
+            length = cached.buffer().remaining();
+        } else {
+            path = store.locate(id);
+            if (path == null)
+                throw new NotFoundException("Image " + id + " does not exist");
+            length = Files.size(path);
         }
 
-        return (bytes != null) ? bytes : null;
+        long[] bounds = parseRange(range, length);
+        if (bounds == null)
+            return Response.ok(transfer(id, cached, path, 0, length, length))
+                    .tag(etag)
+                    .cacheControl(IMMUTABLE)
+                    .header(ACCEPT_RANGES, "bytes")
+                    .header(HttpHeaders.CONTENT_LENGTH, length)
+                    .build();
+
+        if (bounds.length == 0) {
+            if (cached != null)
+                cached.close();
+            return Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(CONTENT_RANGE, "bytes */" + length)
+                    .build();
+        }
+
+        long first = bounds[0], last = bounds[1];
+        return Response.status(Status.PARTIAL_CONTENT)
+                .entity(transfer(id, cached, path, first, last - first + 1, length))
+                .tag(etag)
+                .cacheControl(IMMUTABLE)
+                .header(ACCEPT_RANGES, "bytes")
+                .header(CONTENT_RANGE, "bytes " + first + "-" + last + "/" + length)
+                .header(HttpHeaders.CONTENT_LENGTH, last - first + 1)
+                .build();
     }
 
     /**
-     * Lists the id of images stored.
+     * Lists the id of images stored, a page at a time in ascending order.
+     * The cursor for the next page, if there is one, is returned in the
+     * X-Next-Cursor header.
      */
     @GET
     @Path("/list")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> list() {
-
-        List<String> list = new ArrayList<>();
-        String dir = System.getenv("azure-managed-disk");
-        String[] dirs = (new File(dir)).list();
-        for(String id: dirs)
-            list.add(id);
-        /*
-         * try {
-         * 
-         * // Get client to blob
-         * PagedIterable<BlobItem> blob = containerClient.listBlobs();
-         * 
-         * for (BlobItem item : blob)
-         * list.add(item.getName());
-         * 
-         * return list;
-         * 
-         * } catch (Exception e) {
-         * e.printStackTrace();
-         * }
-         */
-        return list;
+    public Response list(@QueryParam("cursor") String cursor,
+            @QueryParam("limit") @DefaultValue(Pagination.DEFAULT_LIMIT) int limit) throws IOException {
+        int pageSize = Pagination.limit(limit);
+        List<String> ids = store.list(cursor, pageSize);
+        String next = ids.size() == pageSize ? ids.get(ids.size() - 1) : null;
+        return Pagination.response(new Page<>(ids, next), id -> id);
     }
 
+    /**
+     * Whether an image with the given id exists, answered from the in-memory
+     * {@link MediaIndex}.
+     */
     public boolean verifyImgId(String ImgId) {
-        return true;
-        // List<String> list = new ArrayList<>();
+        return index.contains(ImgId);
+    }
 
-        // // Get client to blob
-        // PagedIterable<BlobItem> blob = containerClient.listBlobs();
+    // PRIVATE METHODS
 
-        // for (BlobItem item : blob)
-        // list.add(item.getName());
+    private static CacheControl immutable() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoTransform(false);
+        cacheControl.setMaxAge(ONE_YEAR);
+        cacheControl.getCacheExtension().put("immutable", null);
+        return cacheControl;
+    }
 
-        // return list.contains(ImgId);
+    /**
+     * Streams count bytes from offset, out of the cached buffer when there is
+     * one (releasing it afterwards) and straight from the file otherwise.
+     */
+    private StreamingOutput transfer(String id, ImageCache.Lease cached, java.nio.file.Path path, long offset,
+            long count, long length) {
+        if (cached != null)
+            return output -> {
+                try (cached) {
+                    ByteBuffer slice = cached.buffer().duplicate();
+                    slice.position((int) offset).limit((int) (offset + count));
+                    WritableByteChannel target = Channels.newChannel(output);
+                    while (slice.hasRemaining())
+                        target.write(slice);
+                }
+            };
+        return output -> {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(output);
+                long sent = 0;
+                while (sent < count)
+                    sent += channel.transferTo(offset + sent, count - sent, target);
+            }
+            images.offer(id, path, length);
+        };
+    }
+
+    /**
+     * Whether an If-None-Match header lists the given entity tag (or is "*").
+     */
+    private static boolean matches(String ifNoneMatch, String id) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals("\"" + id + "\""))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single "bytes=first-last", "bytes=first-" or "bytes=-suffix"
+     * range. Returns null when the whole file should be sent (no header, a
+     * malformed one or several ranges), an empty array when the range cannot
+     * be satisfied, and the inclusive bounds otherwise.
+     */
+    private static long[] parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0)
+            return null;
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+        try {
+            long first, last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0)
+                    return new long[0];
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+                if (last < first)
+                    return null;
+                last = Math.min(last, length - 1);
+            }
+            if (first >= length)
+                return new long[0];
+            return new long[] { first, last };
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 }
\ No newline at end of file
@@ -1,26 +1,24 @@
 package scc.srv.resources;
 
-import scc.cache.RedisCache;
+import scc.cache.Cache;
+import scc.cache.CacheFactory;
+import scc.cache.FollowingIndex;
+import scc.srv.Pagination;
 import scc.srv.MainApplication;
-import scc.cosmosdb.CosmosDBLayer;
-import scc.cosmosdb.models.UserDAO;
+import scc.storage.Storage;
+import scc.storage.StorageFactory;
 import scc.srv.dataclasses.Auction;
 import scc.srv.dataclasses.Question;
-import scc.cosmosdb.models.AuctionDAO;
+import scc.srv.dataclasses.FollowedAuction.Reason;
+import scc.cosmosdb.models.AuctionSummaryDAO;
 import scc.cosmosdb.models.QuestionDAO;
+import scc.utils.Validator;
 
 import java.util.List;
 import jakarta.ws.rs.*;
-import java.util.Iterator;
-import java.util.ArrayList;
-import java.lang.reflect.Field;
 import jakarta.ws.rs.core.Cookie;
-import redis.clients.jedis.Jedis;
 import jakarta.ws.rs.core.MediaType;
-import com.azure.cosmos.util.CosmosPagedIterable;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.ws.rs.core.Response;
 
 /**
  * Resource for managing questions.
@@ -31,6 +29,7 @@ public class QuestionsResource {
     private static final int DEFAULT_REDIS_EXPIRE = 600;
     private static final String AUCTION_ERROR = "Auction does not exist";
     private static final String NULL_FIELD_EXCEPTION = "Null %s exception";
+    private static final Validator<Question> VALIDATOR = Validator.of(Question.class, "reply");
     private static final String USER_NOT_EXISTS = "Error non-existent user";
     private static final String QUESTION_NULL = "Error creating null question";
     private static final String AUCTION_NOT_EXISTS = "Error non-existent auction";
@@ -40,15 +39,15 @@ public class QuestionsResource {
     private static final String REPLY_ALREADY_DONE = "Only one reply can be made for a question";
     private static final String AUCTION_ID_NOT_EXISTS_DB = "Auction does not exist in the DataBase";
 
-    private ObjectMapper mapper;
+    private Cache cache;
+    private FollowingIndex following;
     private UsersResource users;
-    private static Jedis jedis_instance;
-    private static CosmosDBLayer db_instance;
+    private static Storage db_instance;
 
     public QuestionsResource() {
-        db_instance = CosmosDBLayer.getInstance();
-        jedis_instance = RedisCache.getCachePool().getResource();
-        mapper = new ObjectMapper();
+        db_instance = StorageFactory.getInstance();
+        cache = CacheFactory.getInstance();
+        following = FollowingIndex.getInstance();
         for (Object resource : MainApplication.getSingletonsSet()) {
             if (resource instanceof UsersResource)
                 users = (UsersResource) resource;
@@ -81,31 +80,26 @@ public class QuestionsResource {
 
         // Create the question to store in the db
         QuestionDAO dbquestion = new QuestionDAO(question);
-        jedis_instance.setex("question:" + question.getId(), DEFAULT_REDIS_EXPIRE, mapper.writeValueAsString(question));
+        cache.set("question:" + question.getId(), question, DEFAULT_REDIS_EXPIRE);
 
         db_instance.putQuestion(dbquestion);
+        following.record(question.getUserId(), question.getAuctionId(), Reason.QUESTION);
         return question;
     }
 
     @GET
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> listAuctionQuestions(@PathParam("id") String auctionId)
+    public Response listAuctionQuestions(@PathParam("id") String auctionId, @QueryParam("cursor") String cursor,
+            @QueryParam("limit") @DefaultValue(Pagination.DEFAULT_LIMIT) int limit)
             throws IllegalArgumentException, IllegalAccessException {
 
-        List<String> list = new ArrayList<>();
-
-        if (!auctionExistsInDB(auctionId)) {
-            list.add(AUCTION_ID_NOT_EXISTS_DB);
-            return list;
-        }
-
-        Iterator<QuestionDAO> it = db_instance.getQuestionsByAuctionId(auctionId).iterator();
-
-        if (it.hasNext())
-            list.add(((QuestionDAO) it.next()).toQuestion().toString());
+        if (!auctionExistsInDB(auctionId))
+            throw new NotFoundException(AUCTION_ID_NOT_EXISTS_DB);
 
-        return list;
+        int pageSize = Pagination.limit(limit);
+        return Pagination.response(() -> db_instance.getQuestionsByAuctionId(auctionId, cursor, pageSize),
+                QuestionDAO::toQuestion);
     }
 
     @Path("/{id}")
@@ -159,17 +153,10 @@ public class QuestionsResource {
 
         // Updates the question in redis with the new reply and stores the new question
         // (reply)
-        try {
-            String res = jedis_instance.get("question:" + questioned.getId());
-            if (res != null) {
-                questioned.setReply(newReply);
-                jedis_instance.setex("question:" + questioned.getId(), DEFAULT_REDIS_EXPIRE,
-                        mapper.writeValueAsString(questioned));
-                jedis_instance.setex("question:" + question.getId(), DEFAULT_REDIS_EXPIRE,
-                        mapper.writeValueAsString(question));
-            }
-        } catch (Exception e) {
-            // TODO: handle exception
+        if (cache.exists("question:" + questioned.getId())) {
+            questioned.setReply(newReply);
+            cache.set("question:" + questioned.getId(), questioned, DEFAULT_REDIS_EXPIRE);
+            cache.set("question:" + question.getId(), question, DEFAULT_REDIS_EXPIRE);
         }
 
         // Updates the question in the database with the new reply and stores the new
@@ -185,40 +172,30 @@ public class QuestionsResource {
 
     // PRIVATE METHODS
 
-    private String getAuctionOwner(String auctionId) throws JsonMappingException, JsonProcessingException {
-        String auction_res = jedis_instance.get("auction:" + auctionId);
-        if (auction_res != null) {
-            Auction auction = mapper.readValue(auction_res, Auction.class);
+    private String getAuctionOwner(String auctionId) {
+        Auction auction = cache.get("auction:" + auctionId, Auction.class);
+        if (auction != null)
             return auction.getOwnerId();
-        }
 
-        CosmosPagedIterable<AuctionDAO> auctionsIt = db_instance.getAuctionById(auctionId);
-        if (!auctionsIt.iterator().hasNext())
-            return AUCTION_ERROR; // this should never happen.
-        AuctionDAO auc = auctionsIt.iterator().next();
-        return auc.getOwnerId();
+        return db_instance.getAuctionSummary(auctionId)
+                .map(AuctionSummaryDAO::getOwnerId)
+                .orElse(AUCTION_ERROR); // this should never happen.
     }
 
     private Question getQuestionById(String id) {
-        Iterator<QuestionDAO> auctionsIt = db_instance.getQuestionsById(id).iterator();
-        while (auctionsIt.hasNext())
-            return auctionsIt.next().toQuestion();
-        return null;
+        return db_instance.getQuestionById(id).map(QuestionDAO::toQuestion).orElse(null);
     }
 
     private boolean questionExistsInDB(String questionId) {
-        CosmosPagedIterable<QuestionDAO> questionsIt = db_instance.getQuestionsById(questionId);
-        return questionsIt.iterator().hasNext();
+        return db_instance.getQuestionById(questionId).isPresent();
     }
 
     private boolean userExistsInDB(String userId) {
-        CosmosPagedIterable<UserDAO> usersIt = db_instance.getUserById(userId);
-        return usersIt.iterator().hasNext();
+        return db_instance.getUserById(userId).isPresent();
     }
 
     private boolean auctionExistsInDB(String auctionId) {
-        CosmosPagedIterable<AuctionDAO> auctionIt = db_instance.getAuctionById(auctionId);
-        return auctionIt.iterator().hasNext();
+        return db_instance.getAuctionById(auctionId).isPresent();
     }
 
     private void checkQuestion(Question question) throws Exception {
@@ -230,11 +207,9 @@ public class QuestionsResource {
             throw new Exception("Question exists in db");
 
         // verify that fields are different from null
-        for (Field f : question.getClass().getDeclaredFields()) {
-            f.setAccessible(true);
-            if (f.get(question) == null && !f.getName().equals("reply"))
-                throw new Exception(String.format(NULL_FIELD_EXCEPTION, f.getName()));
-        }
+        List<String> missing = VALIDATOR.missing(question);
+        if (!missing.isEmpty())
+            throw new Exception(String.format(NULL_FIELD_EXCEPTION, String.join(", ", missing)));
 
         if (!userExistsInDB(question.getUserId()))
             throw new Exception("User not exists in db");
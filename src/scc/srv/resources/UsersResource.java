@@ -1,29 +1,42 @@
 package scc.srv.resources;
 
-import scc.cache.RedisCache;
-import scc.cosmosdb.CosmosDBLayer;
+import scc.cache.Cache;
+import scc.cache.CacheFactory;
+import scc.cache.FollowingIndex;
+import scc.storage.Storage;
+import scc.storage.StorageFactory;
 import scc.cosmosdb.models.AuctionDAO;
-import scc.cosmosdb.models.BidDAO;
-import scc.cosmosdb.models.QuestionDAO;
 import scc.cosmosdb.models.UserDAO;
 import scc.srv.MainApplication;
+import scc.srv.Pagination;
+import scc.srv.RequestExecutor;
+import scc.srv.dataclasses.FollowedAuction;
+import scc.srv.dataclasses.FollowedAuction.Reason;
 import scc.srv.dataclasses.Login;
 import scc.srv.dataclasses.Session;
 import scc.srv.dataclasses.User;
+import scc.utils.Validator;
 
 import java.util.UUID;
 import java.util.List;
-import jakarta.ws.rs.*;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.EnumMap;
 import java.util.ArrayList;
-import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ExecutionException;
+import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Cookie;
-import redis.clients.jedis.Jedis;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.container.AsyncResponse;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.NewCookie;
 import jakarta.ws.rs.core.MediaType;
-import com.azure.cosmos.util.CosmosPagedIterable;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.core.Response.Status;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 
@@ -38,20 +51,22 @@ public class UsersResource {
     private static final String IMG_NOT_EXIST = "Image does not exist";
     private static final String USER_NULL = "Error creating null user";
     private static final String NULL_FIELD_EXCEPTION = "Null %s exception";
+    private static final Validator<User> VALIDATOR = Validator.of(User.class, "channelIds");
     private static final String USER_ALREADY_EXISTS = "UserId already exists";
     private static final String INVALID_LOGIN = "UserId or password incorrect";
     private static final String UPDATE_ERROR = "Error updating non-existent user";
     private static final String DELETE_ERROR = "Error deleting non-existent user";
+    private static final long QUERY_TIMEOUT = 5;
 
-    private ObjectMapper mapper;
+    private Cache cache;
+    private FollowingIndex followingIndex;
     private MediaResource media;
-    private static Jedis jedis_instance;
-    private static CosmosDBLayer db_instance;
+    private static Storage db_instance;
 
     public UsersResource() {
-        db_instance = CosmosDBLayer.getInstance();
-        jedis_instance = RedisCache.getCachePool().getResource();
-        mapper = new ObjectMapper();
+        db_instance = StorageFactory.getInstance();
+        cache = CacheFactory.getInstance();
+        followingIndex = FollowingIndex.getInstance();
 
         for (Object resource : MainApplication.getSingletonsSet())
             if (resource instanceof MediaResource)
@@ -74,16 +89,11 @@ public class UsersResource {
         //if (error != null)
         //    return error;
 
-        String res = jedis_instance.get("user:" + user.getId());
-        if (res != null)
+        if (cache.exists("user:" + user.getId()))
             return null;
 
         UserDAO userDao = new UserDAO(user);
-        try {
-            jedis_instance.setex("user:" + user.getId(), DEFAULT_REDIS_EXPIRE, mapper.writeValueAsString(user));
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        cache.set("user:" + user.getId(), user, DEFAULT_REDIS_EXPIRE);
 
         db_instance.putUser(userDao);
         return user;
@@ -115,19 +125,15 @@ public class UsersResource {
             return null;
 
         UserDAO userDao = new UserDAO(user);
-        try {
-            String res = jedis_instance.get("user:" + user.getId());
-            if (res != null) {
-                jedis_instance.setex("user:" + user.getId(), DEFAULT_REDIS_EXPIRE, mapper.writeValueAsString(user));
-                db_instance.updateUser(userDao);
-                return null;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (cache.exists("user:" + user.getId())) {
+            cache.set("user:" + user.getId(), user, DEFAULT_REDIS_EXPIRE);
+            db_instance.updateUser(userDao);
+            return null;
         }
 
         if (userExistsInDB(user.getId())) {
             db_instance.updateUser(userDao);
+            cache.delete("user:" + user.getId());
             return user;
         }
 
@@ -156,29 +162,21 @@ public class UsersResource {
             removed = 1;
         }
 
-        jedis_instance.del("user:" + id);
+        cache.delete("user:" + id);
         return removed > 0 ? id : DELETE_ERROR;
     }
 
     @Path("/{id}/auctions")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> getAuctionsOfUser(@CookieParam("scc:session") Cookie session, @PathParam("id") String id) {
-
-        try {
-            checkCookieUser(session, id);
-        } catch (Exception e) {
-            List<String> error = new ArrayList<String>();
-            error.add(e.getMessage());
-            return error;
-        }
-
-        List<String> auctions = new ArrayList<>();
-        Iterator<AuctionDAO> it = db_instance.getAuctionsByUserId(id).iterator();
-        while (it.hasNext()) {
-            auctions.add((it.next().toAuction()).toString());
-        }
-        return auctions;
+    public Response getAuctionsOfUser(@CookieParam("scc:session") Cookie session, @PathParam("id") String id,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("limit") @DefaultValue(Pagination.DEFAULT_LIMIT) int limit) {
+
+        authorize(session, id);
+        int pageSize = Pagination.limit(limit);
+        return Pagination.response(() -> db_instance.getAuctionsByUserId(id, cursor, pageSize),
+                AuctionDAO::toAuction);
     }
 
     /**
@@ -195,15 +193,11 @@ public class UsersResource {
     @Produces(MediaType.APPLICATION_JSON)
     public Response auth(Login login) {
 
-        UserDAO user = null;
+        UserDAO user = db_instance.getUserById(login.getId()).orElse(null);
 
-        if (!userExistsInDB(login.getId()))
-            throw new NotAuthorizedException(INVALID_LOGIN);
-        if (!db_instance.getUserById(login.getId()).iterator().next().getPwd().equals(login.getPwd()))
+        if (user == null || !user.getPwd().equals(login.getPwd()))
             throw new NotAuthorizedException(INVALID_LOGIN);
 
-        user = db_instance.getUserById(login.getId()).iterator().next();
-
         String uid = UUID.randomUUID().toString();
 
         NewCookie cookie = new NewCookie.Builder("scc:session")
@@ -215,13 +209,7 @@ public class UsersResource {
                 .httpOnly(true)
                 .build();
 
-        try {
-            jedis_instance.setex("session:" + uid, DEFAULT_REDIS_EXPIRE,
-                    mapper.writeValueAsString(new Session(uid, user.getId())));
-        } catch (JsonProcessingException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
+        cache.set("session:" + uid, new Session(uid, user.getId()), DEFAULT_REDIS_EXPIRE);
 
         return Response.ok().cookie(cookie).build();
     }
@@ -230,63 +218,23 @@ public class UsersResource {
     @GET
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> openAuctionsUserList(@CookieParam("scc:session") Cookie session, @PathParam("id") String id) {
-
-        try {
-            checkCookieUser(session, id);
-        } catch (Exception e) {
-            List<String> error = new ArrayList<String>();
-            error.add(e.getMessage());
-            return error;
-        }
-
-        List<String> openAuctions = new ArrayList<>();
-
-        Iterator<AuctionDAO> it = db_instance.getOpenAuctions(id).iterator();
-        while (it.hasNext())
-            openAuctions.add(it.next().toAuction().toString());
-
-        return openAuctions;
+    public Response openAuctionsUserList(@CookieParam("scc:session") Cookie session, @PathParam("id") String id,
+            @QueryParam("cursor") String cursor,
+            @QueryParam("limit") @DefaultValue(Pagination.DEFAULT_LIMIT) int limit) {
+
+        authorize(session, id);
+        int pageSize = Pagination.limit(limit);
+        return Pagination.response(() -> db_instance.getOpenAuctions(id, cursor, pageSize),
+                AuctionDAO::toAuction);
     }
 
     @Path("/{id}/following")
     @GET
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> following(@CookieParam("scc:session") Cookie session, @PathParam("id") String id) {
-
-        try {
-            checkCookieUser(session, id);
-        } catch (Exception e) {
-            // TODO Auto-generated catch block
-            List<String> error = new ArrayList<String>();
-            error.add(e.getMessage());
-            return error;
-        }
-
-        List<String> winningBidAuctions = new ArrayList<>();
-        List<String> bidAuctions = new ArrayList<>();
-        List<String> questionsAuctions = new ArrayList<>();
-
-        Iterator<AuctionDAO> itwb = db_instance.getAuctionUserFollow(id).iterator();
-        while (itwb.hasNext())
-            winningBidAuctions.add("  Winning Bidded Auction Id: " + itwb.next().getWinnigBid().getAuctionId());
-
-        Iterator<BidDAO> itb = db_instance.getBidsByUserId(id).iterator();
-        while (itb.hasNext())
-            bidAuctions.add("  Bidded Auction Id: " + itb.next().getAuctionId());
-
-        Iterator<QuestionDAO> itq = db_instance.getQuestionsByUserId(id).iterator();
-        while (itq.hasNext())
-            questionsAuctions.add("  Questioned Auction Id: " + itq.next().getAuctionId());
-
-        List<String> newList = new ArrayList<>();
-
-        newList.addAll(winningBidAuctions);
-        newList.addAll(bidAuctions);
-        newList.addAll(questionsAuctions);
-
-        return newList;
+    public void following(@CookieParam("scc:session") Cookie session, @PathParam("id") String id,
+            @Suspended AsyncResponse response) {
+        RequestExecutor.submit(response, () -> listFollowing(session, id));
     }
 
     /**
@@ -300,22 +248,96 @@ public class UsersResource {
         if (session == null || session.getValue() == null)
             throw new Exception("No session initialized");
 
-        Session s = null;
-        String session_res = jedis_instance.get("session:" + session.getValue());
-        if (session_res == null)
+        Session s = cache.get("session:" + session.getValue(), Session.class);
+        if (s == null)
             return NOT_AUTH;
-        s = mapper.readValue(session_res, Session.class);
 
-        if (s == null || s.getUserId() == null || s.getUserId().length() == 0)
+        if (s.getUserId() == null || s.getUserId().length() == 0)
             throw new Exception("No valid session initialized");
         if (!s.getUserId().equals(id))
             throw new Exception("Invalid user : " + s.getUserId());
         return s.toString();
     }
 
+    // PRIVATE METHODS
+
+    /**
+     * Served from the {@link FollowingIndex}, which is rebuilt from the
+     * database when it is missing.
+     */
+    private Collection<FollowedAuction> listFollowing(Cookie session, String id) {
+
+        authorize(session, id);
+
+        Collection<FollowedAuction> following = followingIndex.get(id);
+        if (following == null) {
+            following = queryFollowing(id);
+            followingIndex.store(id, following);
+        }
+        return following;
+    }
+
+    /**
+     * The lookups are independent, so they run in parallel and the request
+     * takes about as long as the slowest of them. They share one deadline of
+     * {@link #QUERY_TIMEOUT} seconds.
+     */
+    private Collection<FollowedAuction> queryFollowing(String id) {
+
+        ExecutorService fanOut = RequestExecutor.getFanOut();
+        Map<Reason, Future<List<String>>> lookups = new EnumMap<>(Reason.class);
+        lookups.put(Reason.BID, fanOut.submit(() -> toList(db_instance.getAuctionIdsBidByUser(id))));
+        lookups.put(Reason.QUESTION, fanOut.submit(() -> toList(db_instance.getAuctionIdsQuestionedByUser(id))));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(QUERY_TIMEOUT);
+        Map<String, FollowedAuction> following = new TreeMap<>();
+        try {
+            for (Map.Entry<Reason, Future<List<String>>> lookup : lookups.entrySet())
+                for (String auctionId : await(lookup.getValue(), deadline))
+                    following.computeIfAbsent(auctionId, FollowedAuction::new).addReason(lookup.getKey());
+        } finally {
+            for (Future<List<String>> lookup : lookups.values())
+                lookup.cancel(true);
+        }
+        return following.values();
+    }
+
+    /**
+     * Result of a fan-out query, failing the request with 504 if it is not
+     * done by the deadline (a System.nanoTime() value).
+     */
+    private static <T> T await(Future<T> lookup, long deadline) {
+        try {
+            return lookup.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new WebApplicationException("Query timed out", Status.GATEWAY_TIMEOUT);
+        } catch (ExecutionException e) {
+            throw new InternalServerErrorException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted");
+        }
+    }
+
+    private static <T> List<T> toList(Iterable<T> items) {
+        List<T> list = new ArrayList<>();
+        items.forEach(list::add);
+        return list;
+    }
+
+    /**
+     * Rejects the request with 401 unless the session belongs to the user.
+     */
+    private void authorize(Cookie session, String id) {
+        try {
+            checkCookieUser(session, id);
+        } catch (Exception e) {
+            throw new NotAuthorizedException(e.getMessage());
+        }
+    }
+
     private boolean userExistsInDB(String userId) {
-        CosmosPagedIterable<UserDAO> usersIt = db_instance.getUserById(userId);
-        return usersIt.iterator().hasNext();
+        return db_instance.getUserById(userId).isPresent();
     }
 
     private String checkUser(User user) throws IllegalArgumentException, IllegalAccessException {
@@ -324,11 +346,9 @@ public class UsersResource {
             return USER_NULL;
 
         // verify that fields are different from null excepts channelIds
-        for (Field f : user.getClass().getDeclaredFields()) {
-            f.setAccessible(true);
-            if (f.get(user) == null && !f.getName().matches("channelIds"))
-                return String.format(NULL_FIELD_EXCEPTION, f.getName());
-        }
+        List<String> missing = VALIDATOR.missing(user);
+        if (!missing.isEmpty())
+            return String.format(NULL_FIELD_EXCEPTION, String.join(", ", missing));
 
         // verifies if imageId exists
         if (!media.verifyImgId(user.getPhotoId()))
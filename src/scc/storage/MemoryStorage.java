@@ -0,0 +1,361 @@
+package scc.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import scc.cosmosdb.models.AuctionDAO;
+import scc.cosmosdb.models.AuctionSummaryDAO;
+import scc.cosmosdb.models.BidDAO;
+import scc.cosmosdb.models.LoginDAO;
+import scc.cosmosdb.models.QuestionDAO;
+import scc.cosmosdb.models.RecentAuctionDAO;
+import scc.cosmosdb.models.UserDAO;
+import scc.srv.dataclasses.AuctionStatus;
+import scc.srv.dataclasses.Bid;
+
+/**
+ * In-process storage engine, used to run and load-test the server without
+ * Cosmos DB. Items live in concurrent hash maps, with secondary indexes on the
+ * attributes the queries filter by. Reads are lock-free; writes are serialized
+ * so an item and its index entries always change together.
+ * 
+ * Items are copied on the way in and out, so callers can mutate what they get
+ * without touching the stored state.
+ */
+public class MemoryStorage implements Storage {
+
+	private static final long ABOUT_TO_CLOSE_WINDOW = 86400000;
+
+	private static MemoryStorage instance;
+
+	public static synchronized MemoryStorage getInstance() {
+		if (instance != null)
+			return instance;
+		instance = new MemoryStorage();
+		return instance;
+	}
+
+	private final Map<String, UserDAO> users = new ConcurrentHashMap<>();
+	private final Map<String, AuctionDAO> auctions = new ConcurrentHashMap<>();
+	private final Map<String, BidDAO> bids = new ConcurrentHashMap<>();
+	private final Map<String, QuestionDAO> questions = new ConcurrentHashMap<>();
+	private final Map<String, LoginDAO> logins = new ConcurrentHashMap<>();
+
+	// Secondary indexes, attribute value -> item ids
+	private final Map<String, Set<String>> auctionsByOwner = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> auctionsByStatus = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> bidsByAuction = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> bidsByUser = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> questionsByAuction = new ConcurrentHashMap<>();
+	private final Map<String, Set<String>> questionsByUser = new ConcurrentHashMap<>();
+
+	private MemoryStorage() {
+	}
+
+	// USERS
+
+	public synchronized void delUserById(String id) {
+		users.remove(id);
+	}
+
+	public void delUser(UserDAO user) {
+		delUserById(user.getId());
+	}
+
+	public synchronized UserDAO putUser(UserDAO user) {
+		checkAbsent(users, user.getId());
+		users.put(user.getId(), copy(user));
+		return user;
+	}
+
+	public synchronized UserDAO updateUser(UserDAO user) {
+		users.put(user.getId(), copy(user));
+		return user;
+	}
+
+	public Optional<UserDAO> getUserById(String id) {
+		return find(users, id).map(MemoryStorage::copy);
+	}
+
+	public Iterable<UserDAO> getUsers() {
+		return copyAll(users.values(), MemoryStorage::copy);
+	}
+
+	// AUCTIONS
+
+	public synchronized AuctionDAO putAuction(AuctionDAO auction) {
+		checkAbsent(auctions, auction.getId());
+		storeAuction(auction);
+		return auction;
+	}
+
+	public synchronized AuctionDAO updateAuction(AuctionDAO auction) {
+		storeAuction(auction);
+		return auction;
+	}
+
+	public synchronized boolean raiseWinningBid(String auctionId, Bid bid) {
+		AuctionDAO auction = find(auctions, auctionId).map(MemoryStorage::copy).orElse(null);
+		if (auction == null)
+			return true;
+		Bid winning = auction.getWinnigBid();
+		if (winning == null || winning.getAmount() < bid.getAmount()) {
+			auction.setWinnigBid(bid);
+			storeAuction(auction);
+		}
+		return true;
+	}
+
+	public Optional<AuctionDAO> getAuctionById(String id) {
+		return find(auctions, id).map(MemoryStorage::copy);
+	}
+
+	public Optional<AuctionSummaryDAO> getAuctionSummary(String id) {
+		return find(auctions, id).map(a -> new AuctionSummaryDAO(a.getId(), a.getStatus(), a.getOwnerId()));
+	}
+
+	public Page<AuctionDAO> getAuctionsByUserId(String id, String cursor, int limit) {
+		List<AuctionDAO> list = lookup(auctionsByOwner, id, auctions, a -> true, MemoryStorage::copy);
+		list.sort(Comparator.comparing(AuctionDAO::getId));
+		return page(list, cursor, limit);
+	}
+
+	public Page<AuctionDAO> getOpenAuctions(String id, String cursor, int limit) {
+		List<AuctionDAO> list = lookup(auctionsByOwner, id, auctions,
+				a -> AuctionStatus.OPEN.getStatus().equals(a.getStatus()), MemoryStorage::copy);
+		list.sort(Comparator.comparing(AuctionDAO::getId));
+		return page(list, cursor, limit);
+	}
+
+	public Iterable<AuctionDAO> getAllAuctions() {
+		return copyAll(auctions.values(), MemoryStorage::copy);
+	}
+
+	public Iterable<AuctionDAO> getAuctionsAboutToClose() {
+		long limit = System.currentTimeMillis() + ABOUT_TO_CLOSE_WINDOW;
+		return lookup(auctionsByStatus, AuctionStatus.OPEN.getStatus(), auctions,
+				a -> a.getEndTime() != null && a.getEndTime().getTime() <= limit, MemoryStorage::copy);
+	}
+
+	public synchronized List<String> closeAuctions() {
+		long now = System.currentTimeMillis();
+		List<String> closed = new ArrayList<>();
+		for (AuctionDAO auction : lookup(auctionsByStatus, AuctionStatus.OPEN.getStatus(), auctions,
+				a -> a.getEndTime() != null && a.getEndTime().getTime() <= now, MemoryStorage::copy)) {
+			auction.setStatus(AuctionStatus.CLOSE.getStatus());
+			storeAuction(auction);
+			closed.add(auction.getId());
+		}
+		return closed;
+	}
+
+	/**
+	 * Recent auctions are computed offline for Cosmos DB; there is nothing to
+	 * compute them from here.
+	 */
+	public Iterable<RecentAuctionDAO> getRecentAuctions() {
+		return Collections.emptyList();
+	}
+
+	// BIDS
+
+	public synchronized BidDAO putBid(BidDAO bid) {
+		checkAbsent(bids, bid.getId());
+		storeBid(bid);
+		return bid;
+	}
+
+	public synchronized Set<String> upsertBids(Collection<BidDAO> bidList) {
+		Set<String> written = new HashSet<>();
+		for (BidDAO bid : bidList) {
+			storeBid(bid);
+			written.add(bid.getId());
+		}
+		return written;
+	}
+
+	public Optional<BidDAO> getBidById(String id) {
+		return find(bids, id).map(MemoryStorage::copy);
+	}
+
+	public Page<BidDAO> getBidsByAuctionId(String id, String cursor, int limit) {
+		List<BidDAO> list = lookup(bidsByAuction, id, bids, b -> true, MemoryStorage::copy);
+		list.sort(Comparator.comparingDouble(BidDAO::getAmount).reversed().thenComparing(BidDAO::getId));
+		return page(list, cursor, limit);
+	}
+
+	public Iterable<String> getAuctionIdsBidByUser(String id) {
+		return new ArrayList<>(new LinkedHashSet<>(lookup(bidsByUser, id, bids, b -> true, BidDAO::getAuctionId)));
+	}
+
+	// QUESTIONS
+
+	public synchronized QuestionDAO putQuestion(QuestionDAO question) {
+		checkAbsent(questions, question.getId());
+		storeQuestion(question);
+		return question;
+	}
+
+	public synchronized QuestionDAO updateQuestion(QuestionDAO question) {
+		storeQuestion(question);
+		return question;
+	}
+
+	public Optional<QuestionDAO> getQuestionById(String id) {
+		return find(questions, id).map(MemoryStorage::copy);
+	}
+
+	public Page<QuestionDAO> getQuestionsByAuctionId(String id, String cursor, int limit) {
+		List<QuestionDAO> list = lookup(questionsByAuction, id, questions, q -> true, MemoryStorage::copy);
+		list.sort(Comparator.comparing(QuestionDAO::getId));
+		return page(list, cursor, limit);
+	}
+
+	public Iterable<String> getAuctionIdsQuestionedByUser(String id) {
+		return new ArrayList<>(
+				new LinkedHashSet<>(lookup(questionsByUser, id, questions, q -> true, QuestionDAO::getAuctionId)));
+	}
+
+	// LOGIN
+
+	public synchronized LoginDAO putLogin(LoginDAO login) {
+		checkAbsent(logins, login.getId());
+		logins.put(login.getId(), new LoginDAO(login.getId(), login.getPwd()));
+		return login;
+	}
+
+	public Optional<LoginDAO> getLoginById(String id) {
+		return find(logins, id).map(l -> new LoginDAO(l.getId(), l.getPwd()));
+	}
+
+	public void close() {
+	}
+
+	// PRIVATE METHODS
+
+	private void storeAuction(AuctionDAO auction) {
+		AuctionDAO old = auctions.put(auction.getId(), copy(auction));
+		if (old != null) {
+			unindex(auctionsByOwner, old.getOwnerId(), old.getId());
+			unindex(auctionsByStatus, old.getStatus(), old.getId());
+		}
+		index(auctionsByOwner, auction.getOwnerId(), auction.getId());
+		index(auctionsByStatus, auction.getStatus(), auction.getId());
+	}
+
+	private void storeBid(BidDAO bid) {
+		BidDAO old = bids.put(bid.getId(), copy(bid));
+		if (old != null) {
+			unindex(bidsByAuction, old.getAuctionId(), old.getId());
+			unindex(bidsByUser, old.getUserId(), old.getId());
+		}
+		index(bidsByAuction, bid.getAuctionId(), bid.getId());
+		index(bidsByUser, bid.getUserId(), bid.getId());
+	}
+
+	private void storeQuestion(QuestionDAO question) {
+		QuestionDAO old = questions.put(question.getId(), copy(question));
+		if (old != null) {
+			unindex(questionsByAuction, old.getAuctionId(), old.getId());
+			unindex(questionsByUser, old.getUserId(), old.getId());
+		}
+		index(questionsByAuction, question.getAuctionId(), question.getId());
+		index(questionsByUser, question.getUserId(), question.getId());
+	}
+
+	private static void index(Map<String, Set<String>> index, String key, String id) {
+		if (key == null)
+			return;
+		index.compute(key, (k, ids) -> {
+			if (ids == null)
+				ids = ConcurrentHashMap.newKeySet();
+			ids.add(id);
+			return ids;
+		});
+	}
+
+	private static void unindex(Map<String, Set<String>> index, String key, String id) {
+		if (key == null)
+			return;
+		index.computeIfPresent(key, (k, ids) -> {
+			ids.remove(id);
+			return ids.isEmpty() ? null : ids;
+		});
+	}
+
+	/**
+	 * Copies of the items indexed under key that match the filter.
+	 */
+	private static <T, R> List<R> lookup(Map<String, Set<String>> index, String key, Map<String, T> items,
+			Predicate<T> filter, Function<T, R> copier) {
+		List<R> list = new ArrayList<>();
+		if (key == null)
+			return list;
+		for (String id : index.getOrDefault(key, Collections.emptySet())) {
+			T item = items.get(id);
+			if (item != null && filter.test(item))
+				list.add(copier.apply(item));
+		}
+		return list;
+	}
+
+	/**
+	 * The continuation is simply the offset of the next item in the sorted
+	 * result.
+	 */
+	private static <T> Page<T> page(List<T> list, String cursor, int limit) {
+		int from;
+		try {
+			from = cursor == null ? 0 : Integer.parseInt(cursor);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+		}
+		from = Math.max(0, Math.min(from, list.size()));
+		int to = Math.min(list.size(), from + limit);
+		String next = to < list.size() ? String.valueOf(to) : null;
+		return new Page<>(new ArrayList<>(list.subList(from, to)), next);
+	}
+
+	private static <T> List<T> copyAll(Collection<T> items, Function<T, T> copier) {
+		List<T> list = new ArrayList<>(items.size());
+		for (T item : items)
+			list.add(copier.apply(item));
+		return list;
+	}
+
+	private static <T> Optional<T> find(Map<String, T> items, String id) {
+		return id == null ? Optional.empty() : Optional.ofNullable(items.get(id));
+	}
+
+	private static void checkAbsent(Map<String, ?> items, String id) {
+		if (items.containsKey(id))
+			throw new IllegalStateException("Id already exists: " + id);
+	}
+
+	private static UserDAO copy(UserDAO user) {
+		return new UserDAO(user.toUser());
+	}
+
+	private static AuctionDAO copy(AuctionDAO auction) {
+		return new AuctionDAO(auction.toAuction());
+	}
+
+	private static BidDAO copy(BidDAO bid) {
+		return new BidDAO(bid.toBid());
+	}
+
+	private static QuestionDAO copy(QuestionDAO question) {
+		return new QuestionDAO(question.toQuestion());
+	}
+}
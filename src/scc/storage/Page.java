@@ -0,0 +1,26 @@
+package scc.storage;
+
+import java.util.List;
+
+/**
+ * One page of a query. The continuation is an opaque token that resumes the
+ * query after the last item, or null if there are no more items.
+ */
+public class Page<T> {
+
+	private final List<T> items;
+	private final String continuation;
+
+	public Page(List<T> items, String continuation) {
+		this.items = items;
+		this.continuation = continuation;
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	public String getContinuation() {
+		return continuation;
+	}
+}
@@ -0,0 +1,118 @@
+package scc.storage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import scc.cosmosdb.models.AuctionDAO;
+import scc.cosmosdb.models.AuctionSummaryDAO;
+import scc.cosmosdb.models.BidDAO;
+import scc.cosmosdb.models.LoginDAO;
+import scc.cosmosdb.models.QuestionDAO;
+import scc.cosmosdb.models.RecentAuctionDAO;
+import scc.cosmosdb.models.UserDAO;
+import scc.srv.dataclasses.Bid;
+
+/**
+ * Persistent storage used by the resources. Lookups by id return an empty
+ * Optional when the item does not exist.
+ */
+public interface Storage {
+
+	void delUserById(String id);
+
+	void delUser(UserDAO user);
+
+	UserDAO putUser(UserDAO user);
+
+	UserDAO updateUser(UserDAO user);
+
+	Optional<UserDAO> getUserById(String id);
+
+	Iterable<UserDAO> getUsers();
+
+	AuctionDAO putAuction(AuctionDAO auction);
+
+	AuctionDAO updateAuction(AuctionDAO auction);
+
+	/**
+	 * Sets the auction's winning bid unless it already has one at least as
+	 * high. Only that field is written.
+	 * 
+	 * @return false if the write failed and should be retried; a missing
+	 *         auction or a higher stored bid count as done
+	 */
+	boolean raiseWinningBid(String auctionId, Bid bid);
+
+	Optional<AuctionDAO> getAuctionById(String id);
+
+	/**
+	 * Status and owner of the auction, without reading the whole document.
+	 */
+	Optional<AuctionSummaryDAO> getAuctionSummary(String id);
+
+	/**
+	 * Up to limit auctions owned by the user, resuming from cursor (a
+	 * continuation returned by a previous call, or null for the first page).
+	 * Paginated methods throw IllegalArgumentException for a cursor that is
+	 * not such a continuation.
+	 */
+	Page<AuctionDAO> getAuctionsByUserId(String id, String cursor, int limit);
+
+	Page<AuctionDAO> getOpenAuctions(String id, String cursor, int limit);
+
+	Iterable<AuctionDAO> getAllAuctions();
+
+	/**
+	 * Open auctions ending in the next 24 hours.
+	 */
+	Iterable<AuctionDAO> getAuctionsAboutToClose();
+
+	/**
+	 * Closes every open auction whose end time has passed.
+	 * 
+	 * @return ids of the auctions closed
+	 */
+	List<String> closeAuctions();
+
+	Iterable<RecentAuctionDAO> getRecentAuctions();
+
+	BidDAO putBid(BidDAO bid);
+
+	/**
+	 * @return ids of the bids that were written
+	 */
+	Set<String> upsertBids(Collection<BidDAO> bids);
+
+	Optional<BidDAO> getBidById(String id);
+
+	/**
+	 * Bids of the auction, highest amount first, a page at a time.
+	 */
+	Page<BidDAO> getBidsByAuctionId(String id, String cursor, int limit);
+
+	/**
+	 * Distinct ids of the auctions the user has bid on.
+	 */
+	Iterable<String> getAuctionIdsBidByUser(String id);
+
+	QuestionDAO putQuestion(QuestionDAO question);
+
+	QuestionDAO updateQuestion(QuestionDAO question);
+
+	Optional<QuestionDAO> getQuestionById(String id);
+
+	Page<QuestionDAO> getQuestionsByAuctionId(String id, String cursor, int limit);
+
+	/**
+	 * Distinct ids of the auctions the user has asked questions on.
+	 */
+	Iterable<String> getAuctionIdsQuestionedByUser(String id);
+
+	LoginDAO putLogin(LoginDAO login);
+
+	Optional<LoginDAO> getLoginById(String id);
+
+	void close();
+}
@@ -0,0 +1,23 @@
+package scc.storage;
+
+import scc.cosmosdb.CosmosDBLayer;
+
+/**
+ * Selects the storage backend from the "storage" environment variable:
+ * "memory" for the in-process engine, anything else (or unset) for Cosmos DB.
+ */
+public class StorageFactory {
+	private static final String STORAGE = System.getenv("storage");
+
+	private static Storage instance;
+
+	public static synchronized Storage getInstance() {
+		if (instance != null)
+			return instance;
+		if ("memory".equalsIgnoreCase(STORAGE))
+			instance = MemoryStorage.getInstance();
+		else
+			instance = CosmosDBLayer.getInstance();
+		return instance;
+	}
+}
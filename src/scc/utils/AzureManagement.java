@@ -466,6 +466,19 @@ public class AzureManagement {
 							createCosmosCollection(cosmosClient, AZURE_COSMOSDB_DATABASE, "auctions", "/id",
 									null);
 
+							// Point reads and bulk upserts use the item id as the partition key
+							createCosmosCollection(cosmosClient, AZURE_COSMOSDB_DATABASE, "bids", "/id",
+									null);
+
+							createCosmosCollection(cosmosClient, AZURE_COSMOSDB_DATABASE, "questions", "/id",
+									null);
+
+							createCosmosCollection(cosmosClient, AZURE_COSMOSDB_DATABASE, "login", "/id",
+									null);
+
+							createCosmosCollection(cosmosClient, AZURE_COSMOSDB_DATABASE, "recentAuctions", "/id",
+									null);
+
 							System.err.println("Azure Cosmos DB resources created with success");
 
 						} catch (Exception e) {
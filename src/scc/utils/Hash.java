@@ -1,45 +1,162 @@
 package scc.utils;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
  * Utility class that computes hashes of String, bytes, etc.
  * 
+ * Each thread reuses its own digest per algorithm, so hashing never contends
+ * on a lock. The default algorithm is SHA1, which media ids are built with;
+ * {@link #fast(byte[])} is a non-cryptographic 64-bit hash for internal keys.
+ * 
  * @author smd
  *
  */
 public class Hash {
-	static MessageDigest md;
 
-	static {
-		try {
-			md = MessageDigest.getInstance("SHA1");
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
+	public enum Algorithm {
+		SHA1("SHA1"), SHA256("SHA-256");
+
+		private final String name;
+		private final ThreadLocal<MessageDigest> digests;
+
+		Algorithm(String name) {
+			this.name = name;
+			this.digests = ThreadLocal.withInitial(this::newDigest);
+		}
+
+		/**
+		 * A fresh digest, private to the caller, e.g. for hashing data while it is
+		 * streamed.
+		 */
+		public MessageDigest newDigest() {
+			try {
+				return MessageDigest.getInstance(name);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
 		}
+
+		/**
+		 * This thread's digest, reset and ready for use. It must not escape the
+		 * calling method.
+		 */
+		MessageDigest local() {
+			MessageDigest md = digests.get();
+			md.reset();
+			return md;
+		}
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+	private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+	private static final long FNV_PRIME = 0x100000001B3L;
+
+	public static byte[] digest(byte[] data) {
+		return digest(Algorithm.SHA1, data);
 	}
-	
-	synchronized public static byte[] digest(byte[] data) {
-		md.reset();
+
+	public static byte[] digest(Algorithm algorithm, byte[] data) {
+		return algorithm.local().digest(data);
+	}
+
+	public static byte[] digest(Algorithm algorithm, ByteBuffer data) {
+		MessageDigest md = algorithm.local();
 		md.update(data);
 		return md.digest();
-	};
-	
+	}
+
+	public static byte[] digest(Algorithm algorithm, InputStream data) throws IOException {
+		MessageDigest md = algorithm.local();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int read;
+		while ((read = data.read(buffer)) >= 0)
+			md.update(buffer, 0, read);
+		return md.digest();
+	}
+
 	public static String of(String data) {
-		return String.format("%016X", new BigInteger(1,digest(data.getBytes())));
+		return hex(digest(data.getBytes()));
 	};
-	
+
 	public static String of(byte[] data) {
-		return String.format("%016X", new BigInteger(1,digest(data)));
+		return hex(digest(data));
 	};
-	
-	synchronized public static String of(Object ...values) {
-		md.reset();
+
+	public static String of(ByteBuffer data) {
+		return hex(digest(Algorithm.SHA1, data));
+	}
+
+	public static String of(InputStream data) throws IOException {
+		return hex(digest(Algorithm.SHA1, data));
+	}
+
+	public static String of(Object ...values) {
+		MessageDigest md = Algorithm.SHA1.local();
 		for( Object o : values )
 			md.update( o.toString().getBytes() );
-		return String.format("%016X", new BigInteger(1, md.digest()));
+		return hex(md.digest());
 	};
-	
+
+	/**
+	 * A fresh SHA1 digest, private to the caller, for hashing data incrementally
+	 * (e.g. while it is streamed).
+	 */
+	public static MessageDigest newDigest() {
+		return Algorithm.SHA1.newDigest();
+	}
+
+	/**
+	 * Formats a digest the same way as {@link #of(byte[])}.
+	 */
+	public static String of(MessageDigest digest) {
+		return hex(digest.digest());
+	}
+
+	/**
+	 * Uppercase hexadecimal of the digest as an unsigned number, without
+	 * leading zeros but at least 16 digits long, i.e. what
+	 * String.format("%016X", new BigInteger(1, digest)) produces.
+	 */
+	public static String hex(byte[] digest) {
+		byte[] chars = new byte[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			chars[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+			chars[2 * i + 1] = HEX[digest[i] & 0xF];
+		}
+		int start = 0;
+		while (start < chars.length - 16 && chars[start] == '0')
+			start++;
+		if (chars.length < 16) {
+			byte[] padded = new byte[16];
+			Arrays.fill(padded, (byte) '0');
+			System.arraycopy(chars, 0, padded, 16 - chars.length, chars.length);
+			chars = padded;
+		}
+		return new String(chars, start, chars.length - start, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * 64-bit FNV-1a. Fast and well spread, but trivially forgeable: only for
+	 * internal keys, never for content ids.
+	 */
+	public static long fast(byte[] data) {
+		long h = FNV_OFFSET;
+		for (byte b : data) {
+			h ^= b & 0xFF;
+			h *= FNV_PRIME;
+		}
+		return h;
+	}
+
+	public static long fast(String data) {
+		return fast(data.getBytes(StandardCharsets.UTF_8));
+	}
 }
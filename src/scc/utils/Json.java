@@ -0,0 +1,71 @@
+package scc.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+
+import scc.srv.dataclasses.Auction;
+import scc.srv.dataclasses.Bid;
+import scc.srv.dataclasses.Question;
+import scc.srv.dataclasses.Session;
+import scc.srv.dataclasses.User;
+
+/**
+ * The one JSON codec of the application, shared by the cache backends, the
+ * background workers and (through {@link scc.srv.JsonMapperResolver}) the
+ * HTTP layer.
+ * 
+ * The mapper uses Afterburner to replace reflective accessors with generated
+ * bytecode. Readers and writers are immutable and thread safe, so one of each
+ * is built per type and reused, which skips the per-call type lookups of
+ * {@link ObjectMapper#readValue}.
+ */
+public class Json {
+
+	private static final ObjectMapper mapper = new ObjectMapper().registerModule(new AfterburnerModule());
+	private static final ConcurrentHashMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+	static {
+		for (Class<?> type : new Class<?>[] { Auction.class, Bid.class, User.class, Question.class, Session.class }) {
+			reader(type);
+			writer(type);
+		}
+	}
+
+	public static ObjectMapper mapper() {
+		return mapper;
+	}
+
+	public static ObjectReader reader(Class<?> type) {
+		return readers.computeIfAbsent(type, mapper::readerFor);
+	}
+
+	public static ObjectWriter writer(Class<?> type) {
+		// Callers streaming several values into one generator flush it themselves
+		return writers.computeIfAbsent(type,
+				t -> mapper.writerFor(t).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE));
+	}
+
+	public static <T> T read(String json, Class<T> type) throws JsonProcessingException {
+		return reader(type).readValue(json);
+	}
+
+	public static <T> T read(byte[] json, Class<T> type) throws IOException {
+		return reader(type).readValue(json);
+	}
+
+	public static String write(Object value) throws JsonProcessingException {
+		return writer(value.getClass()).writeValueAsString(value);
+	}
+
+	public static byte[] writeBytes(Object value) throws JsonProcessingException {
+		return writer(value.getClass()).writeValueAsBytes(value);
+	}
+}
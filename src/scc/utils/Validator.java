@@ -0,0 +1,82 @@
+package scc.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks that the reference fields of a data class are set. The fields and
+ * their accessors are resolved once per class; validating an object is then
+ * just a call through each cached {@link MethodHandle}, with no reflection
+ * and no allocation unless something is missing.
+ * 
+ * @param <T> the validated class
+ */
+public class Validator<T> {
+
+	private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+	private static final ConcurrentHashMap<List<Object>, Validator<?>> validators = new ConcurrentHashMap<>();
+
+	/**
+	 * The validator of the given class, in which only the named fields may be
+	 * null. Validators are cached per class and set of nullable fields.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Validator<T> of(Class<T> clazz, String... nullable) {
+		List<Object> key = List.of(clazz, new HashSet<>(Arrays.asList(nullable)));
+		return (Validator<T>) validators.computeIfAbsent(key, k -> new Validator<>(clazz, nullable));
+	}
+
+	private final String[] names;
+	private final MethodHandle[] getters;
+
+	private Validator(Class<T> clazz, String... nullable) {
+		Set<String> optional = new HashSet<>(Arrays.asList(nullable));
+		List<String> names = new ArrayList<>();
+		List<MethodHandle> getters = new ArrayList<>();
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+			for (Field f : clazz.getDeclaredFields()) {
+				if (Modifier.isStatic(f.getModifiers()) || f.getType().isPrimitive() || optional.contains(f.getName()))
+					continue;
+				names.add(f.getName());
+				getters.add(lookup.unreflectGetter(f).asType(GETTER));
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Cannot access fields of " + clazz.getName(), e);
+		}
+		this.names = names.toArray(new String[0]);
+		this.getters = getters.toArray(new MethodHandle[0]);
+	}
+
+	/**
+	 * Names of all required fields that are null, in declaration order; empty
+	 * if the object is valid.
+	 */
+	public List<String> missing(T object) {
+		List<String> missing = Collections.emptyList();
+		for (int i = 0; i < getters.length; i++) {
+			Object value;
+			try {
+				value = (Object) getters[i].invokeExact((Object) object);
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+			if (value == null) {
+				if (missing.isEmpty())
+					missing = new ArrayList<>();
+				missing.add(names[i]);
+			}
+		}
+		return missing;
+	}
+}
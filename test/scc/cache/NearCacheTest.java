@@ -0,0 +1,64 @@
+package scc.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class NearCacheTest {
+
+	private static final int CAPACITY = 100;
+	private static final int HOT = CAPACITY / 4;
+	private static final long TTL_MILLIS = 60000;
+
+	private static byte[] value(String key) {
+		return key.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void put(NearCache cache, String key) {
+		cache.put(key, value(key), cache.version(key));
+	}
+
+	@Test
+	public void recentlyUsedKeysSurviveEviction() {
+		NearCache cache = new NearCache(CAPACITY, TTL_MILLIS);
+		for (int i = 0; i < HOT; i++)
+			put(cache, "hot:" + i);
+
+		// Keep touching the hot keys while many more keys stream through
+		for (int i = 0; i < CAPACITY * 10; i++) {
+			put(cache, "cold:" + i);
+			assertNotNull(cache.get("hot:" + (i % HOT)));
+		}
+
+		for (int i = 0; i < HOT; i++)
+			assertArrayEquals(value("hot:" + i), cache.get("hot:" + i));
+		assertNull(cache.get("cold:0"));
+	}
+
+	@Test
+	public void leastRecentlyUsedKeyIsEvictedFirst() {
+		NearCache cache = new NearCache(2, TTL_MILLIS);
+		put(cache, "a");
+		put(cache, "b");
+		cache.get("a");
+		put(cache, "c");
+
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+	}
+
+	@Test
+	public void putAfterInvalidationIsDropped() {
+		NearCache cache = new NearCache(CAPACITY, TTL_MILLIS);
+		long version = cache.version("a");
+		cache.invalidate("a");
+		cache.put("a", value("a"), version);
+
+		assertNull(cache.get("a"));
+	}
+}